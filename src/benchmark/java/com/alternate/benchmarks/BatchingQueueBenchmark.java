@@ -0,0 +1,78 @@
+package com.alternate.benchmarks;
+
+import com.alternate.common.util.BatchingQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publish throughput (messages/sec) of the group-commit stage for a burst of messages, with every flush
+ * paying a simulated mongo round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchingQueueBenchmark {
+
+    private static final int MESSAGES = 10_000;
+
+    @Param({"1", "16", "128", "1024"})
+    public int batchSize;
+
+    @Param({"200"})
+    public long roundTripMicros;
+
+    private final AtomicLong persisted = new AtomicLong();
+    private final Map<String, Object> payload = Collections.singletonMap("value", 1);
+    private BatchingQueue<String, Map<String, Object>> queue;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.queue = new BatchingQueue<>(this.batchSize, 0, this::persist);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.queue.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void publishBurst() {
+        long target = this.persisted.get() + MESSAGES;
+
+        for (int i = 0; i < MESSAGES; i++) {
+            this.queue.submit("topic-" + (i & 3), this.payload);
+        }
+
+        while (this.persisted.get() < target) {
+            LockSupport.parkNanos(10_000);
+        }
+    }
+
+    private void persist(String topic, List<Map<String, Object>> payloads) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(this.roundTripMicros));
+        this.persisted.addAndGet(payloads.size());
+    }
+}
@@ -0,0 +1,75 @@
+package com.alternate.benchmarks;
+
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.services.impl.ChangeEventMapperImpl;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a synthetic change stream event into a {@link MessageWrapper}, for an insert carrying the
+ * full document and for an update carrying an update description.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangeEventMappingBenchmark {
+
+    @Param({"insert", "update"})
+    public String operation;
+
+    private final ChangeEventMapperImpl changeEventMapper = new ChangeEventMapperImpl();
+    private ChangeStreamDocument<RawBsonDocument> document;
+
+    @Setup
+    public void setUp() {
+        ObjectId id = new ObjectId();
+        Document fullDocument = SyntheticDocuments.order(42);
+        fullDocument.remove("_id");
+
+        UpdateDescription updateDescription = "update".equals(this.operation)
+                ? new UpdateDescription(Collections.singletonList("address.zip"),
+                        new BsonDocument("status", new BsonString("shipped")).append("total", new BsonDouble(21.0)))
+                : null;
+
+        this.document = new ChangeStreamDocument<>(
+                new BsonDocument("_data", new BsonString(id.toHexString())),
+                new BsonDocument("db", new BsonString("demo")).append("coll", new BsonString("orders")),
+                new RawBsonDocument(fullDocument, new DocumentCodec()),
+                new BsonDocument("_id", new BsonObjectId(id)),
+                new BsonTimestamp((int) (System.currentTimeMillis() / 1000), 1),
+                OperationType.fromString(this.operation),
+                updateDescription);
+    }
+
+    @Benchmark
+    public MessageWrapper map() {
+        return this.changeEventMapper.toMessageWrapper(this.document);
+    }
+}
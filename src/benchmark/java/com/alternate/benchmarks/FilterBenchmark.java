@@ -0,0 +1,89 @@
+package com.alternate.benchmarks;
+
+import com.alternate.messagebroker.models.FilterExpression;
+import com.alternate.messagebroker.models.MessageWrapper;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Cost of evaluating one subscription filter against one change event. The equality filter is evaluated the way
+ * subscriptions used to evaluate it, as a chain of per-key lambdas and as a loop over the filter map, and as a
+ * compiled expression. The operator filter uses ranges, a nested path and an $or, which only the compiled
+ * expression supports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+    private Map<String, Object> equalityFilter;
+    private Predicate<MessageWrapper> chain;
+    private FilterExpression equalityExpression;
+    private FilterExpression operatorExpression;
+    private MessageWrapper messageWrapper;
+
+    @Setup
+    public void setUp() {
+        this.equalityFilter = new Document("customer", "customer-42").append("status", "pending").append("quantity", 2);
+
+        this.chain = m -> true;
+        for (Map.Entry<String, Object> entry : this.equalityFilter.entrySet()) {
+            this.chain = this.chain.and(m -> m.getPayload().get(entry.getKey()).equals(entry.getValue()));
+        }
+
+        this.equalityExpression = FilterExpression.compile(this.equalityFilter);
+        this.operatorExpression = FilterExpression.compile(Document.parse("{total: {$gte: 100, $lt: 500},"
+                + " 'address.city': 'Colombo', $or: [{status: {$in: ['pending', 'shipped']}}, {tags: 'priority'}]}"));
+
+        Document payload = SyntheticDocuments.order(42);
+        this.messageWrapper = MessageWrapper.builder()
+                .withTopic("orders")
+                .withId(payload.getString("_id"))
+                .withOperationType("insert")
+                .withPayload(payload)
+                .build();
+    }
+
+    @Benchmark
+    public boolean equalityChain() {
+        return this.chain.test(this.messageWrapper);
+    }
+
+    @Benchmark
+    public boolean equalityLoop() {
+        Map<String, Object> payload = this.messageWrapper.getPayload();
+        for (Map.Entry<String, Object> entry : this.equalityFilter.entrySet()) {
+            if (!payload.containsKey(entry.getKey()) || !Objects.equals(payload.get(entry.getKey()), entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Benchmark
+    public boolean equalityCompiled() {
+        return this.equalityExpression.matches(this.messageWrapper.getPayload());
+    }
+
+    @Benchmark
+    public boolean operatorsCompiled() {
+        return this.operatorExpression.matches(this.messageWrapper.getPayload());
+    }
+}
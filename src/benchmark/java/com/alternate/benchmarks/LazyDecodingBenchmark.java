@@ -0,0 +1,103 @@
+package com.alternate.benchmarks;
+
+import com.alternate.messagebroker.models.FilterExpression;
+import com.alternate.messagebroker.models.LazyDocument;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of taking one raw change event's full document through a subscription filter, when the filter rejects it
+ * and when it accepts it and the document is encoded as json. The eager variants decode the whole document up
+ * front the way change events used to be decoded, the lazy variants read it through a {@link LazyDocument}. The
+ * scanned variant rejects the document with the nested filters of 100 subscribers, which read the same fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LazyDecodingBenchmark {
+
+    private final DocumentCodec documentCodec = new DocumentCodec();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private RawBsonDocument rawDocument;
+    private String id;
+    private FilterExpression rejecting;
+    private FilterExpression accepting;
+    private List<FilterExpression> subscribers;
+
+    @Setup
+    public void setUp() {
+        ObjectId objectId = new ObjectId();
+        Document fullDocument = SyntheticDocuments.order(42);
+        fullDocument.put("_id", objectId);
+
+        this.rawDocument = new RawBsonDocument(fullDocument, this.documentCodec);
+        this.id = objectId.toHexString();
+        this.rejecting = FilterExpression.compile(new Document("customer", "customer-7"));
+        this.accepting = FilterExpression.compile(new Document("customer", "customer-42"));
+        this.subscribers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            this.subscribers.add(FilterExpression.compile(new Document("address.zip", "zip-" + i)));
+        }
+    }
+
+    @Benchmark
+    public boolean eagerRejected() {
+        return this.rejecting.matches(this.eager());
+    }
+
+    @Benchmark
+    public boolean lazyRejected() {
+        return this.rejecting.matches(new LazyDocument(this.rawDocument, this.id));
+    }
+
+    @Benchmark
+    public int lazyScannedBySubscribers() {
+        Map<String, Object> payload = new LazyDocument(this.rawDocument, this.id);
+        int matches = 0;
+        for (FilterExpression subscriber : this.subscribers) {
+            if (subscriber.matches(payload)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public byte[] eagerAcceptedJson() throws Exception {
+        Map<String, Object> payload = this.eager();
+        return this.accepting.matches(payload) ? this.objectMapper.writeValueAsBytes(payload) : null;
+    }
+
+    @Benchmark
+    public byte[] lazyAcceptedJson() throws Exception {
+        Map<String, Object> payload = new LazyDocument(this.rawDocument, this.id);
+        return this.accepting.matches(payload) ? this.objectMapper.writeValueAsBytes(payload) : null;
+    }
+
+    private Map<String, Object> eager() {
+        Document document = this.rawDocument.decode(this.documentCodec);
+        document.put("_id", this.id);
+        return document;
+    }
+}
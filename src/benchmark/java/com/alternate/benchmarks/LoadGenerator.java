@@ -0,0 +1,368 @@
+package com.alternate.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives the /ws endpoint with publisher and subscriber clients and reports throughput and delivery latency.
+ * Publishers send at a fixed rate and stamp each message with the time it was scheduled to be sent, so the
+ * latency includes any time the generator itself fell behind. Start the broker with the in-memory profile to
+ * run without mongo:
+ *
+ * <pre>
+ *   mvn spring-boot:run -Dspring-boot.run.profiles=in-memory
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.alternate.benchmarks.LoadGenerator \
+ *       -Dbenchmark="--publishers 50 --subscribers 1000 --rate 200 --duration 60 --report latency.csv"
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("url", "ws://localhost:8080/ws");
+        DEFAULTS.put("publishers", "10");
+        DEFAULTS.put("subscribers", "100");
+        DEFAULTS.put("topics", "10");
+        DEFAULTS.put("rate", "100");
+        DEFAULTS.put("payload-bytes", "256");
+        DEFAULTS.put("publish-batch", "1");
+        DEFAULTS.put("warmup", "10");
+        DEFAULTS.put("duration", "30");
+        DEFAULTS.put("batch-size", "1");
+        DEFAULTS.put("linger-ms", "0");
+        DEFAULTS.put("seed", "42");
+        DEFAULTS.put("label", "local");
+        DEFAULTS.put("report", "");
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Recorder latencies = new Recorder(TimeUnit.SECONDS.toNanos(60), 3);
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final Map<String, String> options;
+    private final WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.container.setDefaultMaxTextMessageBufferSize(1 << 20);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String key = args[i].replaceFirst("^--", "");
+
+            if (!DEFAULTS.containsKey(key)) {
+                System.err.println("unknown option: " + args[i] + ", options: " + DEFAULTS.keySet());
+                System.exit(1);
+            }
+            options.put(key, args[i + 1]);
+        }
+
+        new LoadGenerator(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        int publishers = this.intOption("publishers");
+        int subscribers = this.intOption("subscribers");
+        int topics = this.intOption("topics");
+        URI uri = URI.create(this.options.get("url"));
+
+        List<Session> sessions = new ArrayList<>();
+        CountDownLatch subscribed = new CountDownLatch(subscribers);
+
+        for (int i = 0; i < subscribers; i++) {
+            sessions.add(this.container.connectToServer(new Subscriber("topic-" + (i % topics), subscribed),
+                    ClientEndpointConfig.Builder.create().build(), uri));
+        }
+
+        if (!subscribed.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException((subscribed.getCount()) + " subscribers did not get a subscribe response");
+        }
+
+        List<Publisher> publisherEndpoints = new ArrayList<>();
+        for (int i = 0; i < publishers; i++) {
+            Publisher publisher = new Publisher(i, "topic-" + (i % topics));
+            sessions.add(this.container.connectToServer(publisher, ClientEndpointConfig.Builder.create().build(), uri));
+            publisherEndpoints.add(publisher);
+        }
+
+        System.out.println("connected " + subscribers + " subscribers and " + publishers + " publishers to " + uri);
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / this.intOption("rate");
+        // with publish batches the messages that came due since the last send go out as one PUBLISH_BATCH
+        int publishBatch = this.intOption("publish-batch");
+        Random random = new Random(Long.parseLong(this.options.get("seed")));
+        long start = System.nanoTime();
+
+        for (Publisher publisher : publisherEndpoints) {
+            long offset = (long) (random.nextDouble() * periodNanos);
+            publisher.start(start + offset, periodNanos);
+            scheduler.scheduleAtFixedRate(publisher::publishDue, offset, periodNanos * publishBatch, TimeUnit.NANOSECONDS);
+        }
+
+        TimeUnit.SECONDS.sleep(this.intOption("warmup"));
+        this.latencies.getIntervalHistogram();
+        long publishedBefore = this.published.sum();
+        long deliveredBefore = this.delivered.sum();
+        long measureStart = System.nanoTime();
+
+        TimeUnit.SECONDS.sleep(this.intOption("duration"));
+        scheduler.shutdownNow();
+        long publishedCount = this.published.sum() - publishedBefore;
+        long deliveredCount = this.delivered.sum() - deliveredBefore;
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+
+        // let in-flight messages arrive before taking the histogram
+        TimeUnit.SECONDS.sleep(2);
+        Histogram histogram = this.latencies.getIntervalHistogram();
+
+        this.report(publishers, subscribers, topics, publishedCount / seconds, deliveredCount / seconds, histogram);
+
+        for (Session session : sessions) {
+            try {
+                session.close();
+            } catch (IOException e) {
+                // the run is over, nothing left to report for this client
+            }
+        }
+    }
+
+    private void report(int publishers, int subscribers, int topics, double publishRate, double deliveryRate, Histogram histogram)
+            throws IOException {
+        double p50 = histogram.getValueAtPercentile(50) / 1e6;
+        double p99 = histogram.getValueAtPercentile(99) / 1e6;
+        double p999 = histogram.getValueAtPercentile(99.9) / 1e6;
+        double max = histogram.getMaxValue() / 1e6;
+        double expectedRate = publishRate * subscribers / topics;
+
+        PrintStream out = System.out;
+        out.printf("published:  %.0f msg/s%n", publishRate);
+        out.printf("delivered:  %.0f msg/s (expected %.0f msg/s)%n", deliveryRate, expectedRate);
+        out.printf("send errors: %d%n", this.failed.sum());
+        out.printf("throttled:  %d responses%n", this.throttled.sum());
+        out.printf("latency ms: p50 %.3f  p99 %.3f  p99.9 %.3f  max %.3f  (%d samples)%n", p50, p99, p999, max, histogram.getTotalCount());
+        histogram.outputPercentileDistribution(out, 1e6);
+
+        String report = this.options.get("report");
+        if (report.isEmpty()) {
+            return;
+        }
+
+        Path path = Paths.get(report);
+        List<String> lines = new ArrayList<>();
+        if (!Files.exists(path)) {
+            lines.add("label,publishers,subscribers,topics,rate,batch_size,published_per_s,delivered_per_s,p50_ms,p99_ms,p999_ms,max_ms");
+        }
+        lines.add(String.format("%s,%d,%d,%d,%s,%s,%.0f,%.0f,%.3f,%.3f,%.3f,%.3f", this.options.get("label"), publishers, subscribers,
+                topics, this.options.get("rate"), this.options.get("batch-size"), publishRate, deliveryRate, p50, p99, p999, max));
+        Files.write(path, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        out.println("report appended to " + path.toAbsolutePath());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onFrame(Map<String, Object> frame) {
+        Map<String, Object> content = (Map<String, Object>) frame.get("content");
+        Map<String, Object> headers = (Map<String, Object>) frame.get("headers");
+
+        if (content == null) {
+            return;
+        }
+
+        if (headers != null && headers.containsKey("batch")) {
+            ((List<Map<String, Object>>) content.get("messages")).forEach(this::onFrame);
+            return;
+        }
+
+        Object sentAt = content.get("sentAt");
+        if (sentAt instanceof Number) {
+            this.latencies.recordValue(Math.max(0, System.nanoTime() - ((Number) sentAt).longValue()));
+            this.delivered.increment();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readFrame(String text) {
+        try {
+            return this.objectMapper.readValue(text, Map.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("invalid frame: " + text, e);
+        }
+    }
+
+    private String writeFrame(Map<String, String> headers, Map<String, Object> content) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "COMMAND");
+        frame.put("headers", headers);
+        frame.put("content", content);
+
+        try {
+            return this.objectMapper.writeValueAsString(frame);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int intOption(String key) {
+        return Integer.parseInt(this.options.get(key));
+    }
+
+    private class Subscriber extends Endpoint {
+        private final String topic;
+        private final CountDownLatch subscribed;
+        private final AtomicInteger responses = new AtomicInteger();
+
+        private Subscriber(String topic, CountDownLatch subscribed) {
+            this.topic = topic;
+            this.subscribed = subscribed;
+        }
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            session.addMessageHandler(new MessageHandler.Whole<String>() {
+                @Override
+                public void onMessage(String text) {
+                    Map<String, Object> frame = readFrame(text);
+
+                    // the connect response comes first, the second is the answer to SUBSCRIBE
+                    if ("RESPONSE".equals(frame.get("type")) && responses.incrementAndGet() == 2) {
+                        subscribed.countDown();
+                    } else if ("MESSAGE".equals(frame.get("type"))) {
+                        onFrame(frame);
+                    }
+                }
+            });
+
+            Map<String, String> headers = new HashMap<>();
+            headers.put("command", "SUBSCRIBE");
+            headers.put("topic", this.topic);
+
+            if (intOption("batch-size") > 1) {
+                headers.put("batchSize", options.get("batch-size"));
+                headers.put("lingerMs", options.get("linger-ms"));
+            }
+
+            try {
+                session.getBasicRemote().sendText(writeFrame(headers, null));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private class Publisher extends Endpoint {
+        private final int index;
+        private final Map<String, String> headers = new HashMap<>();
+        private final Map<String, String> batchHeaders = new HashMap<>();
+        private final int publishBatch;
+        private final String padding;
+        private Session session;
+        private long nextSendAt;
+        private long periodNanos;
+        private long sequence;
+
+        private Publisher(int index, String topic) {
+            this.index = index;
+            this.headers.put("command", "PUBLISH");
+            this.headers.put("topic", topic);
+            this.batchHeaders.put("command", "PUBLISH_BATCH");
+            this.batchHeaders.put("topic", topic);
+            this.publishBatch = intOption("publish-batch");
+            this.padding = String.join("", Collections.nCopies(intOption("payload-bytes"), "x"));
+        }
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            this.session = session;
+            // publish acknowledgements are not part of the measurement, only throttled publishes are counted
+            session.addMessageHandler(new MessageHandler.Whole<String>() {
+                @Override
+                public void onMessage(String text) {
+                    if (text.contains("\"status\":\"throttled\"")) {
+                        throttled.increment();
+                    }
+                }
+            });
+        }
+
+        private void start(long firstSendAt, long periodNanos) {
+            this.nextSendAt = firstSendAt;
+            this.periodNanos = periodNanos;
+        }
+
+        // sends every message whose scheduled time has passed, each stamped with that scheduled time
+        private synchronized void publishDue() {
+            long now = System.nanoTime();
+            List<Map<String, Object>> batch = new ArrayList<>();
+
+            while (this.nextSendAt - now <= 0) {
+                Map<String, Object> content = new LinkedHashMap<>();
+                content.put("publisher", this.index);
+                content.put("sequence", this.sequence++);
+                content.put("sentAt", this.nextSendAt);
+                content.put("padding", this.padding);
+
+                if (this.publishBatch <= 1) {
+                    this.send(this.headers, content, 1);
+                } else {
+                    batch.add(Collections.singletonMap("payload", content));
+
+                    if (batch.size() == this.publishBatch) {
+                        this.send(this.batchHeaders, Collections.singletonMap("messages", batch), batch.size());
+                        batch = new ArrayList<>();
+                    }
+                }
+
+                this.nextSendAt += this.periodNanos;
+            }
+
+            if (!batch.isEmpty()) {
+                this.send(this.batchHeaders, Collections.singletonMap("messages", batch), batch.size());
+            }
+        }
+
+        private void send(Map<String, String> headers, Map<String, Object> content, int messages) {
+            try {
+                this.session.getBasicRemote().sendText(writeFrame(headers, content));
+                published.add(messages);
+            } catch (IOException | IllegalStateException e) {
+                failed.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.alternate.benchmarks;
+
+import com.alternate.messagebroker.models.DeliveryMode;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.websocket.models.Message;
+import com.alternate.websocket.models.MessageType;
+import com.alternate.websocket.models.WireFormat;
+import com.alternate.websocket.services.impl.BsonFrameCodecImpl;
+import com.alternate.websocket.services.impl.CborFrameCodecImpl;
+import com.alternate.websocket.services.impl.JsonFrameCodecImpl;
+import com.alternate.websocket.services.impl.MessageCodecImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON encoding done by the websocket handler: a control response, a MESSAGE frame for a new event, the
+ * same frame for every further session of a fan-out, and a frame carrying per-subscription headers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    private final Map<String, String> headers = Collections.singletonMap("subscription", "dashboard");
+    private MessageCodecImpl messageCodec;
+    private Message response;
+    private Document payload;
+    private MessageWrapper sharedMessageWrapper;
+
+    @Setup
+    public void setUp() {
+        this.messageCodec = new MessageCodecImpl(Arrays.asList(
+                new JsonFrameCodecImpl(new ObjectMapper()), new BsonFrameCodecImpl(), new CborFrameCodecImpl()));
+        this.response = Message.builder()
+                .withType(MessageType.RESPONSE)
+                .withHeaders(null)
+                .withContentAttribute("status", "success")
+                .build();
+        this.payload = SyntheticDocuments.order(42);
+        this.sharedMessageWrapper = this.messageWrapper();
+        this.messageCodec.encode(this.sharedMessageWrapper, DeliveryMode.FULL, null, WireFormat.JSON);
+    }
+
+    @Benchmark
+    public WebSocketMessage<?> response() {
+        return this.messageCodec.encode(this.response, WireFormat.JSON);
+    }
+
+    @Benchmark
+    public WebSocketMessage<?> firstFrame() {
+        return this.messageCodec.encode(this.messageWrapper(), DeliveryMode.FULL, null, WireFormat.JSON);
+    }
+
+    @Benchmark
+    public WebSocketMessage<?> sharedFrame() {
+        return this.messageCodec.encode(this.sharedMessageWrapper, DeliveryMode.FULL, null, WireFormat.JSON);
+    }
+
+    @Benchmark
+    public WebSocketMessage<?> subscriptionFrame() {
+        return this.messageCodec.encode(this.sharedMessageWrapper, DeliveryMode.FULL, this.headers, WireFormat.JSON);
+    }
+
+    private MessageWrapper messageWrapper() {
+        return MessageWrapper.builder()
+                .withTopic("orders")
+                .withId(this.payload.getString("_id"))
+                .withOperationType("insert")
+                .withPayload(this.payload)
+                .build();
+    }
+}
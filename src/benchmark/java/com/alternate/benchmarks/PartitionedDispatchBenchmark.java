@@ -0,0 +1,78 @@
+package com.alternate.benchmarks;
+
+import com.alternate.common.util.PartitionedExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Events/sec through the partitioned dispatch stage as lanes are added, with each event costing a fixed
+ * amount of cpu to stand in for filtering, encoding and enqueueing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartitionedDispatchBenchmark {
+
+    private static final int EVENTS = 10_000;
+    private static final int TOPICS = 64;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int lanes;
+
+    @Param({"2000"})
+    public long eventCost;
+
+    private final AtomicLong dispatched = new AtomicLong();
+    private final String[] topics = new String[TOPICS];
+    private PartitionedExecutor dispatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i = 0; i < TOPICS; i++) {
+            this.topics[i] = "topic-" + i;
+        }
+        this.dispatcher = new PartitionedExecutor(this.lanes, 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.dispatcher.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void dispatch() throws InterruptedException {
+        long target = this.dispatched.get() + EVENTS;
+
+        for (int i = 0; i < EVENTS; i++) {
+            this.dispatcher.execute(this.topics[i % TOPICS], () -> {
+                Blackhole.consumeCPU(this.eventCost);
+                this.dispatched.incrementAndGet();
+            });
+        }
+
+        while (this.dispatched.get() < target) {
+            LockSupport.parkNanos(10_000);
+        }
+    }
+}
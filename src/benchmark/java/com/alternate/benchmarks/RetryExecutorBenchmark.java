@@ -0,0 +1,67 @@
+package com.alternate.benchmarks;
+
+import com.alternate.common.util.Executors2;
+import com.alternate.common.util.RetryExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of one task through the {@link RetryExecutor}, from execute until it has succeeded, when it
+ * fails a given number of times first. Retries wait 1 ms doubled per retry with jitter, so with failures the
+ * time is mostly the backoff.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetryExecutorBenchmark {
+
+    @Param({"0", "1", "3"})
+    public int failures;
+
+    private RetryExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.executor = Executors2.newRetryExecutor(1, this.failures, 1L, 1000L, Integer.MAX_VALUE, 0L);
+        // keep the executor from logging every synthetic failure
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(RetryExecutor.class)).setLevel(ch.qos.logback.classic.Level.OFF);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void execute() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        int[] attempts = new int[1];
+
+        this.executor.execute(() -> {
+            if (attempts[0]++ < this.failures) {
+                throw new IllegalStateException("synthetic failure");
+            }
+            done.countDown();
+        });
+
+        done.await();
+    }
+}
@@ -0,0 +1,80 @@
+package com.alternate.benchmarks;
+
+import com.alternate.common.util.HashedWheelTimer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rescheduling one session's timeout, cancelling it and scheduling a new one, while the given number of
+ * other sessions have a timeout pending. The hashed wheel is compared with a scheduled executor, whose delay
+ * queue is a heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionTimeoutBenchmark {
+
+    private static final Runnable NOOP = () -> {
+    };
+
+    @Param({"1000", "100000"})
+    public int sessions;
+
+    private HashedWheelTimer timer;
+    private ScheduledThreadPoolExecutor scheduledExecutor;
+    private HashedWheelTimer.Timeout timeout;
+    private ScheduledFuture<?> future;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.timer = new HashedWheelTimer(100, 512);
+        this.scheduledExecutor = new ScheduledThreadPoolExecutor(1);
+        this.scheduledExecutor.setRemoveOnCancelPolicy(true);
+
+        for (int i = 0; i < this.sessions; i++) {
+            this.timer.schedule(NOOP, 1, TimeUnit.HOURS);
+            this.scheduledExecutor.schedule(NOOP, 1, TimeUnit.HOURS);
+        }
+
+        this.timeout = this.timer.schedule(NOOP, 90, TimeUnit.SECONDS);
+        this.future = this.scheduledExecutor.schedule(NOOP, 90, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.timer.shutdown();
+        this.scheduledExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public Object wheel() {
+        this.timeout.cancel();
+        this.timeout = this.timer.schedule(NOOP, 90, TimeUnit.SECONDS);
+        return this.timeout;
+    }
+
+    @Benchmark
+    public Object scheduledExecutor() {
+        this.future.cancel(false);
+        this.future = this.scheduledExecutor.schedule(NOOP, 90, TimeUnit.SECONDS);
+        return this.future;
+    }
+}
@@ -0,0 +1,70 @@
+package com.alternate.benchmarks;
+
+import com.alternate.messagebroker.models.DeliveryMode;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.models.Subscription;
+import com.alternate.messagebroker.services.impl.SubscriptionRouterImpl;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost of matching one change event against the subscriptions of its topic. Every tenth subscriber is
+ * unfiltered, the rest filter on one of 100 customers, so about 10% of them receive each event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriptionRoutingBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int subscribers;
+
+    private final LongAdder delivered = new LongAdder();
+    private SubscriptionRouterImpl subscriptionRouter;
+    private MessageWrapper messageWrapper;
+
+    @Setup
+    public void setUp() {
+        this.subscriptionRouter = new SubscriptionRouterImpl();
+
+        for (int i = 0; i < this.subscribers; i++) {
+            this.subscriptionRouter.addSubscription(Subscription.builder()
+                    .withTopic("orders")
+                    .withFilter((i % 10 == 0) ? null : Collections.singletonMap("customer", "customer-" + (i % 100)))
+                    .withDeliveryMode(DeliveryMode.FULL)
+                    .withConsumer(m -> this.delivered.increment())
+                    .build());
+        }
+
+        Document payload = SyntheticDocuments.order(42);
+        this.messageWrapper = MessageWrapper.builder()
+                .withTopic("orders")
+                .withId(payload.getString("_id"))
+                .withOperationType("insert")
+                .withPayload(payload)
+                .build();
+    }
+
+    @Benchmark
+    public long route() {
+        this.subscriptionRouter.route(this.messageWrapper);
+        return this.delivered.sum();
+    }
+}
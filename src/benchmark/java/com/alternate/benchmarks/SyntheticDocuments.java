@@ -0,0 +1,25 @@
+package com.alternate.benchmarks;
+
+import org.bson.Document;
+
+import java.util.Arrays;
+import java.util.Date;
+
+final class SyntheticDocuments {
+
+    private SyntheticDocuments() {
+    }
+
+    static Document order(int i) {
+        return new Document("_id", String.format("%024x", i))
+                .append("customer", "customer-" + (i % 100))
+                .append("status", (i % 3 == 0) ? "shipped" : "pending")
+                .append("total", 10.5 * (i % 50))
+                .append("quantity", i % 10)
+                .append("createdAt", new Date(1_500_000_000_000L + i))
+                .append("tags", Arrays.asList("priority", "export", "region-" + (i % 5)))
+                .append("address", new Document("street", "Main Street " + i)
+                        .append("city", "Colombo")
+                        .append("zip", "000" + (i % 10)));
+    }
+}
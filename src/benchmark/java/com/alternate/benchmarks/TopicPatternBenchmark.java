@@ -0,0 +1,84 @@
+package com.alternate.benchmarks;
+
+import com.alternate.messagebroker.models.DeliveryMode;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.models.Subscription;
+import com.alternate.messagebroker.services.impl.SubscriptionRouterImpl;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost of matching one change event against topic pattern subscriptions. Every tenant has an "orders_*" pattern,
+ * one of them matches the event's topic. The trie backed router is compared with testing every pattern's prefix.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TopicPatternBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int patterns;
+
+    private final LongAdder delivered = new LongAdder();
+    private final List<String> prefixes = new ArrayList<>();
+    private SubscriptionRouterImpl subscriptionRouter;
+    private MessageWrapper messageWrapper;
+
+    @Setup
+    public void setUp() {
+        this.subscriptionRouter = new SubscriptionRouterImpl();
+
+        for (int i = 0; i < this.patterns; i++) {
+            String pattern = "tenant-" + i + ".orders_" + Subscription.WILDCARD;
+            this.prefixes.add(Subscription.getTopicPrefix(pattern));
+            this.subscriptionRouter.addSubscription(Subscription.builder()
+                    .withTopic(pattern)
+                    .withDeliveryMode(DeliveryMode.FULL)
+                    .withConsumer(m -> this.delivered.increment())
+                    .build());
+        }
+
+        Document payload = SyntheticDocuments.order(42);
+        this.messageWrapper = MessageWrapper.builder()
+                .withTopic("tenant-" + (this.patterns / 2) + ".orders_eu")
+                .withId(payload.getString("_id"))
+                .withOperationType("insert")
+                .withPayload(payload)
+                .build();
+    }
+
+    @Benchmark
+    public long route() {
+        this.subscriptionRouter.route(this.messageWrapper);
+        return this.delivered.sum();
+    }
+
+    @Benchmark
+    public int scanPrefixes() {
+        int matches = 0;
+        for (String prefix : this.prefixes) {
+            if (this.messageWrapper.getTopic().startsWith(prefix)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
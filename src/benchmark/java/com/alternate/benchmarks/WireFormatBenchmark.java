@@ -0,0 +1,71 @@
+package com.alternate.benchmarks;
+
+import com.alternate.websocket.models.MessageType;
+import com.alternate.websocket.models.WireFormat;
+import com.alternate.websocket.services.FrameCodec;
+import com.alternate.websocket.services.impl.BsonFrameCodecImpl;
+import com.alternate.websocket.services.impl.CborFrameCodecImpl;
+import com.alternate.websocket.services.impl.JsonFrameCodecImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding one MESSAGE frame (payload plus envelope) per wire format. The frame size of each format
+ * is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({"JSON", "BSON", "CBOR"})
+    public WireFormat wireFormat;
+
+    private final Map<String, String> headers = Collections.singletonMap("topic", "orders");
+    private FrameCodec frameCodec;
+    private Document payload;
+
+    @Setup
+    public void setUp() {
+        switch (this.wireFormat) {
+            case BSON:
+                this.frameCodec = new BsonFrameCodecImpl();
+                break;
+            case CBOR:
+                this.frameCodec = new CborFrameCodecImpl();
+                break;
+            default:
+                this.frameCodec = new JsonFrameCodecImpl(new ObjectMapper());
+                break;
+        }
+
+        this.payload = SyntheticDocuments.order(42);
+
+        Object frame = this.encode();
+        int size = (frame instanceof byte[]) ? ((byte[]) frame).length : this.frameCodec.toWebSocketMessage(frame).getPayloadLength();
+        System.out.println(this.wireFormat + " frame size: " + size + " bytes");
+    }
+
+    @Benchmark
+    public Object encode() {
+        return this.frameCodec.encodeFrame(MessageType.MESSAGE, this.headers, this.frameCodec.encodeContent(this.payload));
+    }
+}
@@ -0,0 +1,144 @@
+package com.alternate.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Group-commit queue: items submitted from any thread are drained by a single worker, grouped by key and
+ * handed to the flusher in batches of at most {@code maxBatchSize}. A batch is flushed as soon as it is
+ * full or {@code lingerMillis} after its first item arrived, whichever comes first.
+ */
+public class BatchingQueue<K, T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchingQueue.class);
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final BiConsumer<K, List<T>> flusher;
+    private final BlockingQueue<Entry<K, T>> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    public BatchingQueue(int maxBatchSize, long lingerMillis, BiConsumer<K, List<T>> flusher) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.flusher = flusher;
+        this.executor.submit(this::drain);
+    }
+
+    /**
+     * @throws RejectedExecutionException if the queue has been shut down
+     */
+    public void submit(K key, T item) {
+        if (this.executor.isShutdown()) {
+            throw new RejectedExecutionException("batching queue shut down");
+        }
+
+        this.queue.add(new Entry<>(key, item));
+    }
+
+    public int size() {
+        return this.queue.size();
+    }
+
+    /**
+     * Stops the worker, a batch it is flushing is finished first.
+     *
+     * @return the items that were never handed to the flusher, in submission order
+     */
+    public List<T> shutdown() {
+        this.executor.shutdownNow();
+
+        try {
+            if (!this.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("batching queue worker did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Entry<K, T>> remaining = new ArrayList<>(this.queue.size());
+        this.queue.drainTo(remaining);
+        return remaining.stream().map(entry -> entry.item).collect(Collectors.toList());
+    }
+
+    private void drain() {
+        List<Entry<K, T>> pending = new ArrayList<>(this.maxBatchSize);
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                pending.add(this.queue.take());
+                this.queue.drainTo(pending, this.maxBatchSize - pending.size());
+
+                long deadline = System.nanoTime() + this.lingerNanos;
+                while (pending.size() < this.maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Entry<K, T> entry = (remaining > 0) ? this.queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+
+                    if (entry == null) {
+                        break;
+                    }
+
+                    pending.add(entry);
+                    this.queue.drainTo(pending, this.maxBatchSize - pending.size());
+                }
+
+                this.flush(pending);
+            } catch (InterruptedException e) {
+                // shutting down, the batch collected so far goes back to the queue that is handed to the caller
+                this.requeue(pending);
+                Thread.currentThread().interrupt();
+            } finally {
+                pending.clear();
+            }
+        }
+    }
+
+    private void requeue(List<Entry<K, T>> pending) {
+        List<Entry<K, T>> later = new ArrayList<>(this.queue.size());
+        this.queue.drainTo(later);
+        this.queue.addAll(pending);
+        this.queue.addAll(later);
+    }
+
+    private void flush(List<Entry<K, T>> pending) {
+        Map<K, List<T>> batches = new LinkedHashMap<>();
+        pending.forEach(entry -> batches.computeIfAbsent(entry.key, k -> new ArrayList<>()).add(entry.item));
+
+        batches.forEach((key, items) -> {
+            try {
+                this.flusher.accept(key, items);
+            } catch (RuntimeException e) {
+                LOGGER.error("failed to flush batch of {} items for: {}", items.size(), key, e);
+            }
+        });
+    }
+
+    private static class Entry<K, T> {
+        private final K key;
+        private final T item;
+
+        private Entry(K key, T item) {
+            this.key = key;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.alternate.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the latest value and hands it to the sink in the background, at most once per
+ * {@code intervalMillis} or as soon as {@code maxPending} updates have accumulated.
+ */
+public class Checkpointer<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Checkpointer.class);
+
+    private final int maxPending;
+    private final Consumer<T> sink;
+    private final AtomicReference<T> latest = new AtomicReference<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public Checkpointer(int maxPending, long intervalMillis, Consumer<T> sink) {
+        this.maxPending = maxPending;
+        this.sink = sink;
+        this.scheduler.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void update(T value) {
+        this.latest.set(value);
+
+        if (this.pending.incrementAndGet() == this.maxPending) {
+            this.scheduler.execute(this::flush);
+        }
+    }
+
+    public T getLatest() {
+        return this.latest.get();
+    }
+
+    public void shutdown() {
+        this.flush();
+        this.scheduler.shutdown();
+    }
+
+    private void flush() {
+        if (this.pending.getAndSet(0) == 0) {
+            return;
+        }
+
+        try {
+            this.sink.accept(this.latest.get());
+        } catch (RuntimeException e) {
+            LOGGER.error("checkpoint failed, will retry", e);
+            this.pending.incrementAndGet();
+        }
+    }
+}
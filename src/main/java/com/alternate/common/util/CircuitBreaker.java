@@ -0,0 +1,95 @@
+package com.alternate.common.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calls to a failing dependency. After failureThreshold consecutive failures the breaker opens and refuses
+ * calls for openMillis, then lets a single trial call through: its success closes the breaker again, its failure
+ * keeps it open for another openMillis.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long trialStartedAt;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMillis, LongSupplier nanoClock) {
+        if (failureThreshold < 1 || openMillis < 0) {
+            throw new IllegalArgumentException("failureThreshold must be positive and openMillis not negative");
+        }
+
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return true if the call may go ahead, its outcome must then be recorded
+     */
+    public synchronized boolean tryAcquire() {
+        long now = this.nanoClock.getAsLong();
+
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - this.openedAt < this.openNanos) {
+                    return false;
+                }
+                this.state = State.HALF_OPEN;
+                this.trialStartedAt = now;
+                return true;
+            default:
+                // a trial whose outcome never came is given up after openMillis
+                if (now - this.trialStartedAt < this.openNanos) {
+                    return false;
+                }
+                this.trialStartedAt = now;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        this.state = State.CLOSED;
+        this.consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        this.consecutiveFailures++;
+
+        if (this.state == State.HALF_OPEN || this.consecutiveFailures >= this.failureThreshold) {
+            this.state = State.OPEN;
+            this.openedAt = this.nanoClock.getAsLong();
+        }
+    }
+
+    /**
+     * @return how long calls are still refused, 0 when the breaker is closed or a trial may start
+     */
+    public synchronized long getRetryAfterMillis() {
+        long since = (this.state == State.OPEN) ? this.openedAt : this.trialStartedAt;
+
+        if (this.state == State.CLOSED) {
+            return 0;
+        }
+
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(this.openNanos - (this.nanoClock.getAsLong() - since)));
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+}
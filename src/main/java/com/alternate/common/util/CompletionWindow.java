@@ -0,0 +1,67 @@
+package com.alternate.common.util;
+
+import java.util.function.Consumer;
+
+/**
+ * Bounded window of in-flight work that completes out of order. Each completion that extends the
+ * contiguous run of completed sequences reports the value of the newest one, which makes it safe to use as
+ * a checkpoint.
+ */
+public class CompletionWindow<T> {
+
+    private final Object[] values;
+    private final boolean[] completed;
+    private long head;
+    private long tail;
+
+    public CompletionWindow(int capacity) {
+        this.values = new Object[capacity];
+        this.completed = new boolean[capacity];
+    }
+
+    public synchronized long begin(T value) throws InterruptedException {
+        while (this.tail - this.head == this.values.length) {
+            this.wait();
+        }
+
+        int index = this.index(this.tail);
+        this.values[index] = value;
+        this.completed[index] = false;
+        return this.tail++;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void complete(long sequence, Consumer<T> watermarkConsumer) {
+        this.completed[this.index(sequence)] = true;
+
+        T watermark = null;
+        boolean advanced = false;
+
+        while (this.head < this.tail && this.completed[this.index(this.head)]) {
+            int index = this.index(this.head);
+            watermark = (T) this.values[index];
+            this.values[index] = null;
+            this.head++;
+            advanced = true;
+        }
+
+        if (advanced) {
+            watermarkConsumer.accept(watermark);
+            this.notifyAll();
+        }
+    }
+
+    public synchronized void awaitEmpty() throws InterruptedException {
+        while (this.head < this.tail) {
+            this.wait();
+        }
+    }
+
+    public synchronized int size() {
+        return (int) (this.tail - this.head);
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % this.values.length);
+    }
+}
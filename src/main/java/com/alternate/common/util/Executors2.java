@@ -1,12 +1,31 @@
 package com.alternate.common.util;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 public class Executors2 {
+    private static final long DEFAULT_INITIAL_DELAY_MILLIS = 100L;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 30000L;
+
     public static ExecutorService newRetrySingleThreadExecutor(int maxRetries) {
-        return new RetryExecutor(1, 1, maxRetries,0L,
-                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        return new RetryExecutor(1, maxRetries, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS,
+                new CircuitBreaker(Integer.MAX_VALUE, 0L), Executors2::isRetryable);
+    }
+
+    // failures open the breaker after failureThreshold in a row, it then refuses attempts for openMillis
+    public static RetryExecutor newRetryExecutor(int threads, long maxRetries, long initialDelayMillis, long maxDelayMillis,
+                                                 int failureThreshold, long openMillis) {
+        return newRetryExecutor(threads, maxRetries, initialDelayMillis, maxDelayMillis, failureThreshold, openMillis,
+                Executors2::isRetryable);
+    }
+
+    public static RetryExecutor newRetryExecutor(int threads, long maxRetries, long initialDelayMillis, long maxDelayMillis,
+                                                 int failureThreshold, long openMillis, Predicate<Throwable> retryable) {
+        return new RetryExecutor(threads, maxRetries, initialDelayMillis, maxDelayMillis,
+                new CircuitBreaker(failureThreshold, openMillis), retryable);
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        return error instanceof Exception && !(error instanceof InterruptedException);
     }
 }
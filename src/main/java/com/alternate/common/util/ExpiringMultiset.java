@@ -0,0 +1,66 @@
+package com.alternate.common.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts occurrences of keys that are expected to be removed again within {@code ttlMillis}. Keys that are
+ * never removed expire and are purged lazily as new ones are added.
+ */
+public class ExpiringMultiset<K> {
+
+    private final long ttlNanos;
+    private final Map<K, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong nextPurge;
+
+    public ExpiringMultiset(long ttlMillis) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.nextPurge = new AtomicLong(System.nanoTime() + this.ttlNanos);
+    }
+
+    public void add(K key) {
+        long now = System.nanoTime();
+        this.entries.compute(key, (k, entry) -> new Entry((entry != null && !entry.isExpired(now)) ? entry.count + 1 : 1, now + this.ttlNanos));
+
+        long purgeAt = this.nextPurge.get();
+        if (now - purgeAt >= 0 && this.nextPurge.compareAndSet(purgeAt, now + this.ttlNanos)) {
+            this.entries.values().removeIf(entry -> entry.isExpired(now));
+        }
+    }
+
+    public boolean remove(K key) {
+        long now = System.nanoTime();
+        boolean[] removed = new boolean[1];
+
+        this.entries.computeIfPresent(key, (k, entry) -> {
+            if (entry.isExpired(now)) {
+                return null;
+            }
+
+            removed[0] = true;
+            return (entry.count > 1) ? new Entry(entry.count - 1, entry.expiresAt) : null;
+        });
+
+        return removed[0];
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    private static class Entry {
+        private final int count;
+        private final long expiresAt;
+
+        private Entry(int count, long expiresAt) {
+            this.count = count;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - this.expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.alternate.common.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public class ExponentialBackoff {
+    private static final int MAX_SHIFT = 20;
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private int attempts;
+
+    public ExponentialBackoff(long initialDelayMillis, long maxDelayMillis) {
+        this.initialDelayMillis = Math.max(1L, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+    }
+
+    public long nextDelayMillis() {
+        long ceiling = Math.min(this.maxDelayMillis, this.initialDelayMillis << Math.min(this.attempts, MAX_SHIFT));
+        this.attempts++;
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    public int getAttempts() {
+        return this.attempts;
+    }
+
+    public void reset() {
+        this.attempts = 0;
+    }
+}
@@ -0,0 +1,162 @@
+package com.alternate.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs tasks after a delay, rounded up to the next tick. Timeouts are hashed into a wheel of buckets by their
+ * deadline and each tick only visits the bucket under the hand, so scheduling, cancelling and expiring a timeout
+ * cost O(1) however many are pending. Tasks run on the single timer thread and must not block.
+ */
+public class HashedWheelTimer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final long tickNanos;
+    private final List<List<Timeout>> wheel;
+    private final int mask;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final LongSupplier nanoClock;
+    private final long startNanos;
+    private long tick;
+
+    public HashedWheelTimer(long tickMillis, int ticksPerWheel) {
+        this(tickMillis, ticksPerWheel, System::nanoTime);
+    }
+
+    HashedWheelTimer(long tickMillis, int ticksPerWheel, LongSupplier nanoClock) {
+        if (tickMillis < 1 || ticksPerWheel < 1) {
+            throw new IllegalArgumentException("tickMillis and ticksPerWheel must be positive");
+        }
+
+        // a power of two, so that a tick maps to its bucket with a mask
+        int wheelSize = (ticksPerWheel == 1) ? 1 : Integer.highestOneBit(ticksPerWheel - 1) << 1;
+
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.nanoClock = nanoClock;
+        this.startNanos = nanoClock.getAsLong();
+        this.wheel = new ArrayList<>(wheelSize);
+        this.mask = wheelSize - 1;
+
+        for (int i = 0; i < wheelSize; i++) {
+            this.wheel.add(new ArrayList<>());
+        }
+
+        this.executor.submit(this::run);
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, this.nanoClock.getAsLong() + unit.toNanos(delay));
+        this.pending.incrementAndGet();
+        this.scheduled.add(timeout);
+        return timeout;
+    }
+
+    public int size() {
+        return this.pending.get();
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            long deadline = this.startNanos + (this.tick + 1) * this.tickNanos;
+            long sleepNanos;
+
+            while ((sleepNanos = deadline - this.nanoClock.getAsLong()) > 0) {
+                LockSupport.parkNanos(sleepNanos);
+
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+
+            this.transferScheduled();
+            this.expire(this.wheel.get((int) (this.tick & this.mask)));
+            this.tick++;
+        }
+    }
+
+    // places the timeouts scheduled since the last tick into the bucket of the tick their deadline falls in
+    private void transferScheduled() {
+        Timeout timeout;
+
+        while ((timeout = this.scheduled.poll()) != null) {
+            if (timeout.cancelled) {
+                this.pending.decrementAndGet();
+                continue;
+            }
+
+            long deadlineTick = Math.max(ceilDiv(timeout.deadlineNanos - this.startNanos, this.tickNanos), this.tick);
+            timeout.remainingRounds = (deadlineTick - this.tick) / this.wheel.size();
+            this.wheel.get((int) (deadlineTick & this.mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        int kept = 0;
+
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout timeout = bucket.get(i);
+
+            if (timeout.cancelled) {
+                this.pending.decrementAndGet();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.set(kept++, timeout);
+            } else {
+                this.pending.decrementAndGet();
+                timeout.expired = true;
+
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error("timer task failed", e);
+                }
+            }
+        }
+
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    private static long ceilDiv(long dividend, long divisor) {
+        return (dividend <= 0) ? 0 : (dividend + divisor - 1) / divisor;
+    }
+
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+        private volatile boolean expired;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        // a cancelled timeout is dropped the next time the timer visits it
+        public boolean cancel() {
+            if (this.expired) {
+                return false;
+            }
+            this.cancelled = true;
+            return true;
+        }
+    }
+}
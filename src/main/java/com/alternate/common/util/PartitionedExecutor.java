@@ -0,0 +1,72 @@
+package com.alternate.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs tasks on a fixed number of single-threaded lanes. Tasks submitted with the same key always land on
+ * the same lane, so they run in submission order while different keys spread across cores.
+ */
+public class PartitionedExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionedExecutor.class);
+
+    private final List<BlockingQueue<Runnable>> lanes;
+    private final ExecutorService executor;
+
+    public PartitionedExecutor(int lanes, int laneCapacity) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("lanes must be positive");
+        }
+
+        this.lanes = new ArrayList<>(lanes);
+        this.executor = Executors.newFixedThreadPool(lanes);
+
+        for (int i = 0; i < lanes; i++) {
+            BlockingQueue<Runnable> lane = new ArrayBlockingQueue<>(laneCapacity);
+            this.lanes.add(lane);
+            this.executor.submit(() -> this.drain(lane));
+        }
+    }
+
+    public void execute(Object key, Runnable task) throws InterruptedException {
+        this.lanes.get(this.lane(key)).put(task);
+    }
+
+    public int lane(Object key) {
+        int hash = (key != null) ? key.hashCode() : 0;
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % this.lanes.size();
+    }
+
+    public int getLanes() {
+        return this.lanes.size();
+    }
+
+    public int getQueueDepth() {
+        return this.lanes.stream().mapToInt(BlockingQueue::size).sum();
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    private void drain(BlockingQueue<Runnable> lane) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                lane.take().run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                LOGGER.error("partitioned task failed", e);
+            }
+        }
+    }
+}
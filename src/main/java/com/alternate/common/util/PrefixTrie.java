@@ -0,0 +1,123 @@
+package com.alternate.common.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Values keyed by string prefixes. Finding the values of every prefix of a key walks the key once, so it costs
+ * time proportional to the key length however many prefixes are stored. Lookups are lock free and may run
+ * concurrently with updates, updates are serialized.
+ */
+public class PrefixTrie<V> {
+
+    private final Node<V> root = new Node<>();
+
+    public synchronized V compute(String prefix, BiFunction<String, V, V> remapping) {
+        Node<V> node = this.root;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node<>());
+        }
+
+        node.value = remapping.apply(prefix, node.value);
+
+        if (node.value == null) {
+            this.prune(prefix);
+        }
+
+        return node.value;
+    }
+
+    public V get(String prefix) {
+        Node<V> node = this.root;
+
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.children.get(prefix.charAt(i));
+        }
+
+        return (node != null) ? node.value : null;
+    }
+
+    public void forEachPrefixOf(String key, Consumer<V> action) {
+        Node<V> node = this.root;
+
+        for (int i = 0; node != null; i++) {
+            V value = node.value;
+
+            if (value != null) {
+                action.accept(value);
+            }
+
+            node = (i < key.length()) ? node.children.get(key.charAt(i)) : null;
+        }
+    }
+
+    public boolean hasPrefixOf(String key) {
+        Node<V> node = this.root;
+
+        for (int i = 0; node != null; i++) {
+            if (node.value != null) {
+                return true;
+            }
+
+            node = (i < key.length()) ? node.children.get(key.charAt(i)) : null;
+        }
+
+        return false;
+    }
+
+    public void forEach(BiConsumer<String, V> action) {
+        this.forEach(this.root, new StringBuilder(), action);
+    }
+
+    public boolean isEmpty() {
+        return this.root.value == null && this.root.children.isEmpty();
+    }
+
+    private void forEach(Node<V> node, StringBuilder prefix, BiConsumer<String, V> action) {
+        V value = node.value;
+
+        if (value != null) {
+            action.accept(prefix.toString(), value);
+        }
+
+        for (Map.Entry<Character, Node<V>> child : node.children.entrySet()) {
+            prefix.append(child.getKey().charValue());
+            this.forEach(child.getValue(), prefix, action);
+            prefix.setLength(prefix.length() - 1);
+        }
+    }
+
+    // removes the nodes along the prefix that no longer lead to a value
+    private void prune(String prefix) {
+        Node<V> node = this.root;
+        Node<V> parent = null;
+        char branch = 0;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (node.value != null || node.children.size() > 1) {
+                parent = node;
+                branch = prefix.charAt(i);
+            }
+            node = node.children.get(prefix.charAt(i));
+        }
+
+        if (node.value != null || !node.children.isEmpty()) {
+            return;
+        }
+
+        if (parent != null) {
+            parent.children.remove(branch);
+        } else {
+            this.root.children.clear();
+        }
+    }
+
+    private static class Node<V> {
+        private final Map<Character, Node<V>> children = new ConcurrentHashMap<>(4);
+        private volatile V value;
+    }
+}
@@ -1,55 +1,268 @@
 package com.alternate.common.util;
 
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CancellationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks on a fixed pool and retries the failed ones up to maxRetries times with jittered exponential
+ * backoff. Waiting for a retry holds no worker, the retry is handed back to the pool by a scheduler thread, and
+ * each task keeps its own attempt count. Failures count against a circuit breaker shared by all tasks: while it
+ * is open attempts are put off until it lets a trial through, so a failing dependency is not hammered. An attempt
+ * that ran for longer than the longest delay before failing counts as recovered and starts the backoff over.
+ */
+public class RetryExecutor extends AbstractExecutorService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryExecutor.class);
 
-public class RetryExecutor extends ThreadPoolExecutor {
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
     private final long maxRetries;
-    private Map<Runnable, Integer> retries = new ConcurrentHashMap<>();
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final CircuitBreaker circuitBreaker;
+    private final Predicate<Throwable> retryable;
+    private final Set<RetryTask<?>> waiting = ConcurrentHashMap.newKeySet();
 
-    public RetryExecutor(int corePoolSize, int maximumPoolSize, long maxRetries,
-                         long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
-        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+    public RetryExecutor(int threads, long maxRetries, long initialDelayMillis, long maxDelayMillis,
+                         CircuitBreaker circuitBreaker, Predicate<Throwable> retryable) {
+        this.workers = Executors.newFixedThreadPool(threads);
         this.maxRetries = maxRetries;
+        this.initialDelayMillis = Math.max(1L, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.circuitBreaker = circuitBreaker;
+        this.retryable = retryable;
+    }
+
+    /**
+     * Retries an asynchronous operation, each attempt calls the supplier again. Attempts are started on the pool
+     * but no worker waits for them to complete.
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<? extends CompletionStage<T>> operation) {
+        RetryTask<T> task = new RetryTask<>(operation);
+        this.execute(task);
+        return task.result;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return this.circuitBreaker;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        this.workers.execute((command instanceof RetryTask) ? command : new RetryTask<>(command, null));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new RetryTask<>(runnable, value);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new RetryTask<>(callable);
+    }
+
+    // tasks waiting for a retry are not run again, they fail rather than leave their callers waiting
+    @Override
+    public void shutdown() {
+        this.scheduler.shutdownNow();
+        this.abandon(this.waiting);
+        this.workers.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        this.scheduler.shutdownNow();
+        this.abandon(this.waiting);
+        List<Runnable> queued = this.workers.shutdownNow();
+        this.abandon(queued);
+        return queued;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.workers.isShutdown();
     }
 
     @Override
-    protected void afterExecute(Runnable r, Throwable t) {
-        super.afterExecute(r, t);
-        if (t != null && shouldRetry(r)) {
-            retry(r);
-        } else if (t == null && r instanceof Future<?>) {
+    public boolean isTerminated() {
+        return this.workers.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.workers.awaitTermination(timeout, unit);
+    }
+
+    private void abandon(Iterable<? extends Runnable> tasks) {
+        for (Runnable task : tasks) {
+            if (task instanceof RetryTask) {
+                ((RetryTask<?>) task).result.completeExceptionally(new RejectedExecutionException("retry executor shut down"));
+            }
+        }
+        this.waiting.clear();
+    }
+
+    private static <T> CompletionStage<T> call(Callable<T> callable) {
+        CompletableFuture<T> stage = new CompletableFuture<>();
+
+        try {
+            stage.complete(callable.call());
+        } catch (Exception e) {
+            stage.completeExceptionally(e);
+        }
+
+        return stage;
+    }
+
+    private class RetryTask<T> implements RunnableFuture<T> {
+        private final Supplier<? extends CompletionStage<T>> operation;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final ExponentialBackoff backoff = new ExponentialBackoff(initialDelayMillis, maxDelayMillis);
+        private volatile ScheduledFuture<?> scheduled;
+
+        private RetryTask(Supplier<? extends CompletionStage<T>> operation) {
+            this.operation = operation;
+        }
+
+        private RetryTask(Callable<T> callable) {
+            this(() -> call(callable));
+        }
+
+        private RetryTask(Runnable runnable, T value) {
+            this(Executors.callable(runnable, value));
+        }
+
+        @Override
+        public void run() {
+            if (this.result.isDone()) {
+                return;
+            }
+
+            if (!circuitBreaker.tryAcquire()) {
+                this.schedule(Math.max(circuitBreaker.getRetryAfterMillis(), initialDelayMillis));
+                return;
+            }
+
+            long startedAt = System.nanoTime();
+            CompletionStage<T> attempt;
+
             try {
-                ((Future<?>) r).get();
-            } catch (CancellationException | ExecutionException e) {
-                // you should log the error
-                if (shouldRetry(r)) {
-                    retry(r);
+                attempt = this.operation.get();
+            } catch (RuntimeException e) {
+                CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                attempt = failed;
+            }
+
+            attempt.whenComplete((value, error) -> {
+                if (error == null) {
+                    circuitBreaker.recordSuccess();
+                    this.result.complete(value);
                 } else {
-                    retries.remove(r);
+                    this.failed((error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error, startedAt);
                 }
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt(); // ignore/reset or catch it to reschedule
+            });
+        }
+
+        private void failed(Throwable error, long startedAt) {
+            if (!retryable.test(error)) {
+                // the dependency answered, the error is the task's own
+                circuitBreaker.recordSuccess();
+                this.result.completeExceptionally(error);
+                return;
+            }
+
+            if (System.nanoTime() - startedAt > TimeUnit.MILLISECONDS.toNanos(maxDelayMillis)) {
+                circuitBreaker.recordSuccess();
+                this.backoff.reset();
+            }
+            circuitBreaker.recordFailure();
+
+            if (isShutdown()) {
+                this.result.completeExceptionally(error);
+                return;
+            }
+
+            if (this.backoff.getAttempts() >= maxRetries) {
+                LOGGER.error("task failed, giving up after {} retries", this.backoff.getAttempts(), error);
+                this.result.completeExceptionally(error);
+                return;
             }
-        } else {
-            retries.remove(r);
+
+            long delay = this.backoff.nextDelayMillis();
+            LOGGER.warn("task failed, retry: {} in {} ms", this.backoff.getAttempts(), delay, error);
+            this.schedule(delay);
         }
-    }
 
-    private boolean shouldRetry(Runnable r) {
-        final Integer nbRetries = retries.getOrDefault(r, 0);
-        return nbRetries < maxRetries;
-    }
+        private void schedule(long delayMillis) {
+            waiting.add(this);
+
+            try {
+                this.scheduled = scheduler.schedule(() -> {
+                    waiting.remove(this);
+
+                    try {
+                        workers.execute(this);
+                    } catch (RejectedExecutionException e) {
+                        this.result.completeExceptionally(e);
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                waiting.remove(this);
+                this.result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            ScheduledFuture<?> scheduled = this.scheduled;
 
-    private void retry(Runnable r) {
-        final Integer nbRetries = retries.getOrDefault(r, 0);
-        retries.put(r, nbRetries + 1);
-        this.execute(r);
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            waiting.remove(this);
+            return this.result.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.result.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return this.result.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            return this.result.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return this.result.get(timeout, unit);
+        }
     }
 }
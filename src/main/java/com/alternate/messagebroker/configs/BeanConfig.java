@@ -2,11 +2,14 @@ package com.alternate.messagebroker.configs;
 
 import com.mongodb.MongoClient;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.reactivestreams.client.MongoClients;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 
 @Configuration
+@Profile("!in-memory")
 public class BeanConfig {
 
     @Value("${mongo.host}")
@@ -28,4 +31,15 @@ public class BeanConfig {
         return mongoClient.getDatabase(this.mongoDb);
     }
 
+    @Bean
+    public com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient() {
+        return MongoClients.create("mongodb://" + this.mongoHost + ":" + this.mongoPort);
+    }
+
+    @Bean
+    public com.mongodb.reactivestreams.client.MongoDatabase reactiveMongoDatabase(
+            com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient) {
+        return reactiveMongoClient.getDatabase(this.mongoDb);
+    }
+
 }
@@ -0,0 +1,10 @@
+package com.alternate.messagebroker.exceptions;
+
+public class ReplayOverflowException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ReplayOverflowException(String message) {
+        super(message);
+    }
+}
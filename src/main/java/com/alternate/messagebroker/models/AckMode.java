@@ -0,0 +1,8 @@
+package com.alternate.messagebroker.models;
+
+public enum AckMode {
+    NONE,
+    ACKNOWLEDGED,
+    JOURNALED,
+    MAJORITY
+}
@@ -0,0 +1,6 @@
+package com.alternate.messagebroker.models;
+
+public enum DeliveryMode {
+    FULL,
+    DELTA
+}
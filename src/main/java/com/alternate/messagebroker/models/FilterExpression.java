@@ -0,0 +1,552 @@
+package com.alternate.messagebroker.models;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Subscription filter compiled once into a tree of predicates. The filter language is a subset of the mongo query
+ * language: field conditions with {@code $eq $ne $in $nin $gt $gte $lt $lte $exists}, dotted paths into embedded
+ * documents and arrays, and the {@code $and $or $nor} combinators. As in mongo, a condition on an array field
+ * matches when the array itself or any of its elements matches, and {@code null} matches a missing field.
+ * Evaluating a compiled filter does not allocate.
+ */
+public abstract class FilterExpression {
+
+    public static final FilterExpression MATCH_ALL = new FilterExpression() {
+        @Override
+        public boolean matches(Map<String, Object> document) {
+            return true;
+        }
+    };
+
+    public abstract boolean matches(Map<String, Object> document);
+
+    /**
+     * Equality on a top-level field with a string or boolean value that every matching document must satisfy,
+     * or null. Such values can be looked up in a hash index without converting the document's value first.
+     */
+    public Equality getIndexableEquality() {
+        return null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the filter uses an unknown operator or an operand of the wrong type
+     */
+    public static FilterExpression compile(Map<String, Object> filter) {
+        if (filter == null || filter.isEmpty()) {
+            return MATCH_ALL;
+        }
+
+        List<FilterExpression> conditions = new ArrayList<>(filter.size());
+
+        for (Map.Entry<String, Object> entry : filter.entrySet()) {
+            String key = entry.getKey();
+
+            switch (key) {
+                case "$and":
+                    conditions.add(new And(compileAll(key, entry.getValue())));
+                    break;
+                case "$or":
+                    conditions.add(new Or(compileAll(key, entry.getValue())));
+                    break;
+                case "$nor":
+                    conditions.add(new Not(new Or(compileAll(key, entry.getValue()))));
+                    break;
+                default:
+                    if (key.startsWith("$")) {
+                        throw new IllegalArgumentException("unsupported operator: " + key);
+                    }
+                    conditions.addAll(compileField(new Path(key), entry.getValue()));
+                    break;
+            }
+        }
+
+        return (conditions.size() == 1) ? conditions.get(0) : new And(conditions.toArray(new FilterExpression[0]));
+    }
+
+    /**
+     * Copies a filter read from a message into a map with string keys.
+     *
+     * @throws IllegalArgumentException if a key is not a string
+     */
+    public static Map<String, Object> asFilter(Map<?, ?> map) {
+        Map<String, Object> filter = new LinkedHashMap<>();
+
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String)) {
+                throw new IllegalArgumentException("filter keys must be strings");
+            }
+            filter.put((String) entry.getKey(), entry.getValue());
+        }
+
+        return filter;
+    }
+
+    private static FilterExpression[] compileAll(String operator, Object operand) {
+        if (!(operand instanceof List) || ((List<?>) operand).isEmpty()) {
+            throw new IllegalArgumentException(operator + " expects a non-empty array of filters");
+        }
+
+        List<?> filters = (List<?>) operand;
+        FilterExpression[] expressions = new FilterExpression[filters.size()];
+
+        for (int i = 0; i < expressions.length; i++) {
+            if (!(filters.get(i) instanceof Map)) {
+                throw new IllegalArgumentException(operator + " expects a non-empty array of filters");
+            }
+            expressions[i] = compile(asFilter((Map<?, ?>) filters.get(i)));
+        }
+
+        return expressions;
+    }
+
+    private static List<FilterExpression> compileField(Path path, Object condition) {
+        List<FilterExpression> conditions = new ArrayList<>();
+
+        if (!isOperatorDocument(condition)) {
+            conditions.add(equality(path, condition));
+            return conditions;
+        }
+
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) condition).entrySet()) {
+            String operator = String.valueOf(entry.getKey());
+            Object operand = entry.getValue();
+
+            switch (operator) {
+                case "$eq":
+                    conditions.add(equality(path, operand));
+                    break;
+                case "$ne":
+                    conditions.add(new Not(equality(path, operand)));
+                    break;
+                case "$in":
+                    conditions.add(new FieldCondition(path, new In(operands(operator, operand))));
+                    break;
+                case "$nin":
+                    conditions.add(new Not(new FieldCondition(path, new In(operands(operator, operand)))));
+                    break;
+                case "$gt":
+                    conditions.add(new FieldCondition(path, new Compare(operator, operand, 1, false)));
+                    break;
+                case "$gte":
+                    conditions.add(new FieldCondition(path, new Compare(operator, operand, 1, true)));
+                    break;
+                case "$lt":
+                    conditions.add(new FieldCondition(path, new Compare(operator, operand, -1, false)));
+                    break;
+                case "$lte":
+                    conditions.add(new FieldCondition(path, new Compare(operator, operand, -1, true)));
+                    break;
+                case "$exists":
+                    if (!(operand instanceof Boolean)) {
+                        throw new IllegalArgumentException("$exists expects a boolean");
+                    }
+                    FilterExpression exists = new FieldCondition(path, Exists.INSTANCE);
+                    conditions.add((Boolean) operand ? exists : new Not(exists));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported operator: " + operator);
+            }
+        }
+
+        return conditions;
+    }
+
+    private static boolean isOperatorDocument(Object condition) {
+        if (!(condition instanceof Map) || ((Map<?, ?>) condition).isEmpty()) {
+            return false;
+        }
+
+        int operators = 0;
+        for (Object key : ((Map<?, ?>) condition).keySet()) {
+            if (String.valueOf(key).startsWith("$")) {
+                operators++;
+            }
+        }
+
+        if (operators != 0 && operators != ((Map<?, ?>) condition).size()) {
+            throw new IllegalArgumentException("operators cannot be mixed with fields: " + condition);
+        }
+
+        return operators != 0;
+    }
+
+    private static List<?> operands(String operator, Object operand) {
+        if (!(operand instanceof List)) {
+            throw new IllegalArgumentException(operator + " expects an array");
+        }
+        return (List<?>) operand;
+    }
+
+    private static FilterExpression equality(Path path, Object value) {
+        return (path.isTopLevel() && (value instanceof String || value instanceof Boolean))
+                ? new Equality(path, value)
+                : new FieldCondition(path, new Eq(value));
+    }
+
+    private static boolean valueEquals(Object value, Object operand) {
+        if (value instanceof Number && operand instanceof Number) {
+            return compareNumbers((Number) value, (Number) operand) == 0;
+        }
+        // the operand first, a filter's embedded document is a plain map and Document only equals another Document
+        return Objects.equals(operand, value);
+    }
+
+    // an instanceof check against an interface scans the secondary supertypes of the value's class, which is slow
+    // for the scalar values most fields hold, so those are ruled out with cheap class checks first
+    private static boolean isList(Object value) {
+        return value instanceof ArrayList || (!isScalar(value) && value instanceof List);
+    }
+
+    private static boolean isMap(Object value) {
+        return value instanceof LinkedHashMap || (!isScalar(value) && value instanceof Map);
+    }
+
+    private static boolean isScalar(Object value) {
+        return value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Date;
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+    }
+
+    private static int compareNumbers(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return Long.compare(a.longValue(), b.longValue());
+        }
+        return Double.compare(a.doubleValue(), b.doubleValue());
+    }
+
+    /**
+     * Dotted path into a document. A segment that meets an array selects the element at that index when the
+     * segment is numeric and is otherwise applied to every element.
+     */
+    private static final class Path {
+        private final String field;
+        private final String[] segments;
+        private final int[] indexes;
+
+        private Path(String field) {
+            if (field.isEmpty()) {
+                throw new IllegalArgumentException("empty field name");
+            }
+
+            this.field = field;
+            this.segments = field.split("\\.", -1);
+            this.indexes = new int[this.segments.length];
+
+            for (int i = 0; i < this.segments.length; i++) {
+                if (this.segments[i].isEmpty()) {
+                    throw new IllegalArgumentException("invalid field name: " + field);
+                }
+                this.indexes[i] = isIndex(this.segments[i]) ? Integer.parseInt(this.segments[i]) : -1;
+            }
+        }
+
+        private boolean isTopLevel() {
+            return this.segments.length == 1;
+        }
+
+        private static boolean isIndex(String segment) {
+            if (segment.length() > 9) {
+                return false;
+            }
+            for (int i = 0; i < segment.length(); i++) {
+                if (!Character.isDigit(segment.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private abstract static class Operator {
+        abstract boolean test(Object value);
+
+        boolean testMissing() {
+            return false;
+        }
+    }
+
+    private static final class FieldCondition extends FilterExpression {
+        private final Path path;
+        private final Operator operator;
+
+        private FieldCondition(Path path, Operator operator) {
+            this.path = path;
+            this.operator = operator;
+        }
+
+        @Override
+        public boolean matches(Map<String, Object> document) {
+            Object child = document.get(this.path.segments[0]);
+            return (child != null || document.containsKey(this.path.segments[0]))
+                    ? this.matches(child, 1)
+                    : this.operator.testMissing();
+        }
+
+        private boolean matches(Object node, int depth) {
+            if (depth == this.path.segments.length) {
+                return this.test(node);
+            }
+
+            if (isMap(node)) {
+                Map<?, ?> map = (Map<?, ?>) node;
+                Object child = map.get(this.path.segments[depth]);
+                return (child != null || map.containsKey(this.path.segments[depth]))
+                        ? this.matches(child, depth + 1)
+                        : this.operator.testMissing();
+            }
+
+            if (isList(node)) {
+                List<?> list = (List<?>) node;
+                int index = this.path.indexes[depth];
+
+                if (index >= 0) {
+                    return (index < list.size()) ? this.matches(list.get(index), depth + 1) : this.operator.testMissing();
+                }
+
+                for (int i = 0; i < list.size(); i++) {
+                    if (isMap(list.get(i)) && this.matches(list.get(i), depth)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            return this.operator.testMissing();
+        }
+
+        private boolean test(Object value) {
+            if (this.operator.test(value)) {
+                return true;
+            }
+
+            if (isList(value)) {
+                List<?> list = (List<?>) value;
+                for (int i = 0; i < list.size(); i++) {
+                    if (this.operator.test(list.get(i))) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Equality on a top-level field with a string or boolean value, matched as a {@link FieldCondition} would
+     * match it but exposed so that subscriptions can be indexed by it.
+     */
+    public static final class Equality extends FilterExpression {
+        private final Path path;
+        private final Object value;
+
+        private Equality(Path path, Object value) {
+            this.path = path;
+            this.value = value;
+        }
+
+        public String getField() {
+            return this.path.field;
+        }
+
+        public Object getValue() {
+            return this.value;
+        }
+
+        @Override
+        public Equality getIndexableEquality() {
+            return this;
+        }
+
+        @Override
+        public boolean matches(Map<String, Object> document) {
+            Object fieldValue = document.get(this.path.field);
+
+            if (this.value.equals(fieldValue)) {
+                return true;
+            }
+
+            if (isList(fieldValue)) {
+                List<?> list = (List<?>) fieldValue;
+                for (int i = 0; i < list.size(); i++) {
+                    if (this.value.equals(list.get(i))) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private static final class Eq extends Operator {
+        private final Object operand;
+
+        private Eq(Object operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(Object value) {
+            return valueEquals(value, this.operand);
+        }
+
+        @Override
+        boolean testMissing() {
+            return this.operand == null;
+        }
+    }
+
+    private static final class In extends Operator {
+        private final Set<Object> hashed = new HashSet<>();
+        private final Object[] others;
+        private final boolean matchesMissing;
+
+        private In(List<?> operands) {
+            List<Object> others = new ArrayList<>();
+
+            for (Object operand : operands) {
+                if (operand instanceof String || operand instanceof Boolean) {
+                    this.hashed.add(operand);
+                } else {
+                    others.add(operand);
+                }
+            }
+
+            this.others = others.toArray();
+            this.matchesMissing = others.contains(null);
+        }
+
+        @Override
+        boolean test(Object value) {
+            if (value instanceof String || value instanceof Boolean) {
+                return this.hashed.contains(value);
+            }
+
+            for (Object operand : this.others) {
+                if (valueEquals(value, operand)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean testMissing() {
+            return this.matchesMissing;
+        }
+    }
+
+    private static final class Compare extends Operator {
+        private final Object operand;
+        private final int sign;
+        private final boolean inclusive;
+
+        private Compare(String operator, Object operand, int sign, boolean inclusive) {
+            if (!(operand instanceof Number || operand instanceof String || operand instanceof Date)) {
+                throw new IllegalArgumentException(operator + " expects a number, string or date");
+            }
+
+            this.operand = operand;
+            this.sign = sign;
+            this.inclusive = inclusive;
+        }
+
+        @Override
+        boolean test(Object value) {
+            int comparison;
+
+            // values of different types never compare, as in mongo
+            if (value instanceof Number && this.operand instanceof Number) {
+                comparison = compareNumbers((Number) value, (Number) this.operand);
+            } else if (value instanceof String && this.operand instanceof String) {
+                comparison = ((String) value).compareTo((String) this.operand);
+            } else if (value instanceof Date && this.operand instanceof Date) {
+                comparison = Long.compare(((Date) value).getTime(), ((Date) this.operand).getTime());
+            } else {
+                return false;
+            }
+
+            return (comparison == 0) ? this.inclusive : Integer.signum(comparison) == this.sign;
+        }
+    }
+
+    private static final class Exists extends Operator {
+        private static final Exists INSTANCE = new Exists();
+
+        @Override
+        boolean test(Object value) {
+            return true;
+        }
+    }
+
+    private static final class And extends FilterExpression {
+        private final FilterExpression[] expressions;
+
+        private And(FilterExpression[] expressions) {
+            this.expressions = expressions;
+        }
+
+        @Override
+        public Equality getIndexableEquality() {
+            for (FilterExpression expression : this.expressions) {
+                Equality equality = expression.getIndexableEquality();
+                if (equality != null) {
+                    return equality;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean matches(Map<String, Object> document) {
+            for (FilterExpression expression : this.expressions) {
+                if (!expression.matches(document)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Or extends FilterExpression {
+        private final FilterExpression[] expressions;
+
+        private Or(FilterExpression[] expressions) {
+            this.expressions = expressions;
+        }
+
+        @Override
+        public boolean matches(Map<String, Object> document) {
+            for (FilterExpression expression : this.expressions) {
+                if (expression.matches(document)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Not extends FilterExpression {
+        private final FilterExpression expression;
+
+        private Not(FilterExpression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public boolean matches(Map<String, Object> document) {
+            return !this.expression.matches(document);
+        }
+    }
+}
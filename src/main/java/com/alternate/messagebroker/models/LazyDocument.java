@@ -0,0 +1,129 @@
+package com.alternate.messagebroker.models;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read only document over the raw bytes of a change event's full document, with its _id replaced by the id's
+ * string form. Looking up a top-level field decodes only that field and keeps it, so the filters of many
+ * subscribers reading the same field decode it once. The whole document is decoded the first time it is iterated
+ * and kept for later use, so events that nobody receives are never fully decoded.
+ */
+public class LazyDocument extends AbstractMap<String, Object> {
+
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+    // stand in for absent fields and null values, which the field cache cannot hold
+    private static final Object MISSING = new Object();
+    private static final Object NULL = new Object();
+
+    private final RawBsonDocument rawDocument;
+    private final String id;
+    private final Map<String, Object> fields = new ConcurrentHashMap<>();
+    private volatile Map<String, Object> decoded;
+
+    public LazyDocument(RawBsonDocument rawDocument, String id) {
+        this.rawDocument = rawDocument;
+        this.id = id;
+    }
+
+    public RawBsonDocument getRawDocument() {
+        return rawDocument;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Map<String, Object> decoded = this.decoded;
+
+        if (decoded != null) {
+            return decoded.get(key);
+        }
+
+        if ("_id".equals(key)) {
+            return this.id;
+        }
+
+        Object value = this.field(key);
+        return (value != MISSING && value != NULL) ? value : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Map<String, Object> decoded = this.decoded;
+        return (decoded != null) ? decoded.containsKey(key) : "_id".equals(key) || this.field(key) != MISSING;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return this.decode().entrySet();
+    }
+
+    private Object field(Object key) {
+        if (!(key instanceof String)) {
+            return MISSING;
+        }
+
+        return this.fields.computeIfAbsent((String) key, k -> {
+            BsonValue value = this.rawDocument.get(k);
+
+            if (value == null) {
+                return MISSING;
+            }
+
+            Object decoded = toJava(value);
+            return (decoded != null) ? decoded : NULL;
+        });
+    }
+
+    private Map<String, Object> decode() {
+        Map<String, Object> decoded = this.decoded;
+
+        if (decoded == null) {
+            Document document = this.rawDocument.decode(DOCUMENT_CODEC);
+            document.put("_id", this.id);
+            decoded = Collections.unmodifiableMap(document);
+            this.decoded = decoded;
+        }
+
+        return decoded;
+    }
+
+    // the common scalar types are converted directly, everything else the way the document codec decodes it
+    private static Object toJava(BsonValue value) {
+        switch (value.getBsonType()) {
+            case STRING:
+                return value.asString().getValue();
+            case INT32:
+                return value.asInt32().getValue();
+            case INT64:
+                return value.asInt64().getValue();
+            case DOUBLE:
+                return value.asDouble().getValue();
+            case BOOLEAN:
+                return value.asBoolean().getValue();
+            case NULL:
+                return null;
+            case DOCUMENT:
+                return (value instanceof RawBsonDocument)
+                        ? ((RawBsonDocument) value).decode(DOCUMENT_CODEC)
+                        : DOCUMENT_CODEC.decode(new BsonDocumentReader(value.asDocument()), DECODER_CONTEXT);
+            default:
+                return DOCUMENT_CODEC.decode(new BsonDocumentReader(new BsonDocument("value", value)), DECODER_CONTEXT).get("value");
+        }
+    }
+}
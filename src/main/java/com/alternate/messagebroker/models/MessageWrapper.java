@@ -1,42 +1,152 @@
 package com.alternate.messagebroker.models;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class MessageWrapper {
     private final String topic;
+    private final String id;
+    private final String operationType;
     private final Map<String, Object> payload;
+    private final Map<String, Object> updatedFields;
+    private final List<String> removedFields;
+    private final String position;
+    private final long timestamp;
+    private final long sequence;
+    private final Map<String, Object> encodings = new ConcurrentHashMap<>(4);
 
     private MessageWrapper(MessageWrapperBuilder builder) {
         this.topic = builder.topic;
+        this.id = builder.id;
+        this.operationType = builder.operationType;
         this.payload = builder.payload;
+        this.updatedFields = builder.updatedFields;
+        this.removedFields = builder.removedFields;
+        this.position = builder.position;
+        this.timestamp = builder.timestamp;
+        this.sequence = builder.sequence;
     }
 
     public String getTopic() {
         return topic;
     }
 
+    public String getId() {
+        return id;
+    }
+
+    public String getOperationType() {
+        return operationType;
+    }
+
     public Map<String, Object> getPayload() {
         return payload;
     }
 
+    public Map<String, Object> getUpdatedFields() {
+        return updatedFields;
+    }
+
+    public List<String> getRemovedFields() {
+        return removedFields;
+    }
+
+    public String getPosition() {
+        return position;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean isDelta() {
+        return this.updatedFields != null || this.removedFields != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getEncoding(String format, Function<MessageWrapper, T> encoder) {
+        return (T) this.encodings.computeIfAbsent(format, k -> encoder.apply(this));
+    }
+
     public static MessageWrapperBuilder builder() {
         return new MessageWrapperBuilder();
     }
 
+    public MessageWrapperBuilder toBuilder() {
+        return new MessageWrapperBuilder()
+                .withTopic(this.topic)
+                .withId(this.id)
+                .withOperationType(this.operationType)
+                .withPayload(this.payload)
+                .withUpdatedFields(this.updatedFields)
+                .withRemovedFields(this.removedFields)
+                .withPosition(this.position)
+                .withTimestamp(this.timestamp)
+                .withSequence(this.sequence);
+    }
+
     public static class MessageWrapperBuilder {
         private String topic;
+        private String id;
+        private String operationType;
         private Map<String, Object> payload;
+        private Map<String, Object> updatedFields;
+        private List<String> removedFields;
+        private String position;
+        private long timestamp;
+        private long sequence;
 
         public MessageWrapperBuilder withTopic(String topic) {
             this.topic = topic;
             return this;
         }
 
+        public MessageWrapperBuilder withId(String id) {
+            this.id = id;
+            return this;
+        }
+
+        public MessageWrapperBuilder withOperationType(String operationType) {
+            this.operationType = operationType;
+            return this;
+        }
+
         public MessageWrapperBuilder withPayload(Map<String, Object> payload) {
             this.payload = payload;
             return this;
         }
 
+        public MessageWrapperBuilder withUpdatedFields(Map<String, Object> updatedFields) {
+            this.updatedFields = updatedFields;
+            return this;
+        }
+
+        public MessageWrapperBuilder withRemovedFields(List<String> removedFields) {
+            this.removedFields = removedFields;
+            return this;
+        }
+
+        public MessageWrapperBuilder withPosition(String position) {
+            this.position = position;
+            return this;
+        }
+
+        public MessageWrapperBuilder withTimestamp(long timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        public MessageWrapperBuilder withSequence(long sequence) {
+            this.sequence = sequence;
+            return this;
+        }
+
         public MessageWrapper build() {
             return new MessageWrapper(this);
         }
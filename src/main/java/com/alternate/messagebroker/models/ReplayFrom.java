@@ -0,0 +1,48 @@
+package com.alternate.messagebroker.models;
+
+public class ReplayFrom {
+
+    public enum Type {
+        POSITION,
+        TIMESTAMP,
+        COUNT
+    }
+
+    private final Type type;
+    private final String position;
+    private final long value;
+
+    private ReplayFrom(Type type, String position, long value) {
+        this.type = type;
+        this.position = position;
+        this.value = value;
+    }
+
+    public static ReplayFrom position(String position) {
+        return new ReplayFrom(Type.POSITION, position, 0);
+    }
+
+    public static ReplayFrom timestamp(long timestamp) {
+        return new ReplayFrom(Type.TIMESTAMP, null, timestamp);
+    }
+
+    public static ReplayFrom count(int count) {
+        return new ReplayFrom(Type.COUNT, null, count);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPosition() {
+        return position;
+    }
+
+    public long getTimestamp() {
+        return value;
+    }
+
+    public int getCount() {
+        return (int) value;
+    }
+}
@@ -0,0 +1,107 @@
+package com.alternate.messagebroker.models;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public class Subscription {
+    public static final String WILDCARD = "*";
+
+    private final String topic;
+    private final Map<String, Object> filter;
+    private final FilterExpression expression;
+    private final DeliveryMode deliveryMode;
+    private final Consumer<MessageWrapper> consumer;
+
+    private Subscription(SubscriptionBuilder builder) {
+        this.topic = builder.topic;
+        this.filter = builder.filter != null ? builder.filter : Collections.emptyMap();
+        this.expression = FilterExpression.compile(this.filter);
+        this.deliveryMode = builder.deliveryMode != null ? builder.deliveryMode : DeliveryMode.FULL;
+        this.consumer = builder.consumer;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public Map<String, Object> getFilter() {
+        return filter;
+    }
+
+    public FilterExpression getExpression() {
+        return expression;
+    }
+
+    public DeliveryMode getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    public Consumer<MessageWrapper> getConsumer() {
+        return consumer;
+    }
+
+    public boolean requiresFullDocument() {
+        return this.deliveryMode == DeliveryMode.FULL || !this.filter.isEmpty();
+    }
+
+    // same rule the router applies: messages without a full document only reach unfiltered delta subscribers
+    public boolean accepts(MessageWrapper messageWrapper) {
+        return (messageWrapper.getPayload() != null)
+                ? this.matches(messageWrapper.getPayload())
+                : this.filter.isEmpty() && this.deliveryMode == DeliveryMode.DELTA;
+    }
+
+    public boolean matches(Map<String, Object> payload) {
+        return this.expression.matches(payload);
+    }
+
+    // a topic ending in the wildcard subscribes to every topic that starts with the rest of it
+    public static boolean isTopicPattern(String topic) {
+        return topic.endsWith(WILDCARD);
+    }
+
+    public static boolean isValidTopic(String topic) {
+        int wildcard = topic.indexOf(WILDCARD);
+        return !topic.isEmpty() && (wildcard < 0 || wildcard == topic.length() - 1);
+    }
+
+    public static String getTopicPrefix(String pattern) {
+        return pattern.substring(0, pattern.length() - WILDCARD.length());
+    }
+
+    public static SubscriptionBuilder builder() {
+        return new SubscriptionBuilder();
+    }
+
+    public static class SubscriptionBuilder {
+        private String topic;
+        private Map<String, Object> filter;
+        private DeliveryMode deliveryMode;
+        private Consumer<MessageWrapper> consumer;
+
+        public SubscriptionBuilder withTopic(String topic) {
+            this.topic = topic;
+            return this;
+        }
+
+        public SubscriptionBuilder withFilter(Map<String, Object> filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        public SubscriptionBuilder withDeliveryMode(DeliveryMode deliveryMode) {
+            this.deliveryMode = deliveryMode;
+            return this;
+        }
+
+        public SubscriptionBuilder withConsumer(Consumer<MessageWrapper> consumer) {
+            this.consumer = consumer;
+            return this;
+        }
+
+        public Subscription build() {
+            return new Subscription(this);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.alternate.messagebroker.services;
+
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.RawBsonDocument;
+
+public interface ChangeEventMapper {
+    MessageWrapper toMessageWrapper(ChangeStreamDocument<RawBsonDocument> document);
+}
@@ -0,0 +1,10 @@
+package com.alternate.messagebroker.services;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.RawBsonDocument;
+
+import java.util.function.Consumer;
+
+public interface ChangeStreamListener {
+    void start(Consumer<ChangeStreamDocument<RawBsonDocument>> consumer);
+}
@@ -1,10 +1,30 @@
 package com.alternate.messagebroker.services;
 
+import com.alternate.messagebroker.exceptions.PublishRejectedException;
+import com.alternate.messagebroker.models.AckMode;
+import com.alternate.messagebroker.models.DeliveryMode;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.models.ReplayFrom;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.List;
 import java.util.Map;
 
 public interface MessageBroker {
-    void publish(String topic, Map<String, Object> payload);
-    Flux<Map<String, Object>> subscribe(String topic, Map<String, Object> filter);
+    /**
+     * @return the id of the message, emitted once it has been written with the write concern of the ack mode
+     * @throws PublishRejectedException if the broker holds too many unwritten messages, in total or for the topic
+     */
+    Mono<String> publish(String topic, Map<String, Object> payload, AckMode ackMode);
+
+    /**
+     * Publishes the payloads in order, each to the topic at the same index. Either all of them are admitted or none.
+     *
+     * @return the ids of the messages, in the order of the payloads
+     * @throws PublishRejectedException if the broker holds too many unwritten messages, in total or for a topic
+     */
+    List<Mono<String>> publishAll(List<String> topics, List<Map<String, Object>> payloads, AckMode ackMode);
+
+    Flux<MessageWrapper> subscribe(String topic, Map<String, Object> filter, DeliveryMode deliveryMode, ReplayFrom replayFrom);
 }
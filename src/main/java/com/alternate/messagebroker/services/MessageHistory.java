@@ -0,0 +1,11 @@
+package com.alternate.messagebroker.services;
+
+import com.alternate.messagebroker.models.MessageWrapper;
+
+import java.util.List;
+
+public interface MessageHistory {
+    MessageWrapper record(MessageWrapper messageWrapper);
+
+    List<MessageWrapper> snapshot(String topic);
+}
@@ -0,0 +1,11 @@
+package com.alternate.messagebroker.services;
+
+import org.bson.BsonDocument;
+
+public interface ResumeTokenStore {
+    BsonDocument load(String streamId);
+
+    void save(String streamId, BsonDocument resumeToken);
+
+    String getCollectionName();
+}
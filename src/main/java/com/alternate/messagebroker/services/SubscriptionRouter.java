@@ -0,0 +1,28 @@
+package com.alternate.messagebroker.services;
+
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.models.Subscription;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public interface SubscriptionRouter {
+    void addSubscription(Subscription subscription);
+
+    void removeSubscription(Subscription subscription);
+
+    void route(MessageWrapper messageWrapper);
+
+    long getVersion();
+
+    /**
+     * @return the filters of every topic and topic pattern with subscribers, keyed by the topic or pattern
+     */
+    Map<String, List<Map<String, Object>>> getTopicFilters();
+
+    /**
+     * @return topics whose subscribers only need the change, never a topic pattern or a topic a pattern covers
+     */
+    Set<String> getDeltaOnlyTopics();
+}
@@ -0,0 +1,60 @@
+package com.alternate.messagebroker.services.impl;
+
+import com.alternate.messagebroker.models.LazyDocument;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.services.ChangeEventMapper;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+@Service
+public class ChangeEventMapperImpl implements ChangeEventMapper {
+
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+    @Override
+    public MessageWrapper toMessageWrapper(ChangeStreamDocument<RawBsonDocument> document) {
+        String topic = document.getNamespace() != null ? document.getNamespace().getCollectionName() : "null";
+        String id = document.getDocumentKey().get("_id").asObjectId().getValue().toString();
+        RawBsonDocument fullDocument = document.getFullDocument();
+
+        MessageWrapper.MessageWrapperBuilder builder = MessageWrapper.builder()
+                .withTopic(topic)
+                .withId(id)
+                .withOperationType(document.getOperationType().getValue())
+                .withPayload(fullDocument != null ? new LazyDocument(fullDocument, id) : null)
+                .withPosition(position(document.getResumeToken()))
+                .withTimestamp(document.getClusterTime() != null
+                        ? TimeUnit.SECONDS.toMillis(document.getClusterTime().getTime())
+                        : System.currentTimeMillis());
+
+        UpdateDescription updateDescription = document.getUpdateDescription();
+
+        if (updateDescription != null) {
+            builder.withUpdatedFields(updateDescription.getUpdatedFields() != null
+                    ? DOCUMENT_CODEC.decode(new BsonDocumentReader(updateDescription.getUpdatedFields()), DecoderContext.builder().build())
+                    : null)
+                    .withRemovedFields(updateDescription.getRemovedFields());
+        }
+
+        return builder.build();
+    }
+
+    // servers from 4.0 on carry the token as a hex string, older ones as binary which is kept as json
+    private static String position(BsonDocument resumeToken) {
+        if (resumeToken == null) {
+            return null;
+        }
+
+        BsonValue data = resumeToken.get("_data");
+        return (data != null && data.isString()) ? data.asString().getValue() : resumeToken.toJson();
+    }
+}
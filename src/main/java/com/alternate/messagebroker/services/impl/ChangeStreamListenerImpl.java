@@ -0,0 +1,468 @@
+package com.alternate.messagebroker.services.impl;
+
+import com.alternate.common.util.Checkpointer;
+import com.alternate.common.util.CompletionWindow;
+import com.alternate.common.util.Executors2;
+import com.alternate.common.util.PartitionedExecutor;
+import com.alternate.common.util.RetryExecutor;
+import com.alternate.messagebroker.models.Subscription;
+import com.alternate.messagebroker.services.ChangeStreamListener;
+import com.alternate.messagebroker.services.ResumeTokenStore;
+import com.alternate.messagebroker.services.SubscriptionRouter;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonInt64;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the database with one change stream for full documents and one for deltas. The streams run on the
+ * blocking driver, each on its own thread: the thread waits for the dispatch lanes to take events, which is how the
+ * listener holds back a stream whose subscribers fall behind. Publishing uses the reactive driver.
+ */
+@Service
+@Profile("!in-memory")
+public class ChangeStreamListenerImpl implements ChangeStreamListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeStreamListenerImpl.class);
+
+    private static final List<Integer> NON_RESUMABLE_ERROR_CODES = Arrays.asList(260, 280, 286);
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final PartitionedExecutor dispatcher;
+    private final List<Stream> streams = new ArrayList<>();
+    private final String node = new ObjectId().toHexString();
+    private final NavigableMap<Long, Routing> barriers = new ConcurrentSkipListMap<>();
+    private final Object heartbeatLock = new Object();
+    private long lastHeartbeatAt;
+    private long lastBarrier;
+    private long barrierVersion;
+
+    private final MongoDatabase mongoDatabase;
+    private final SubscriptionRouter subscriptionRouter;
+    private final ResumeTokenStore resumeTokenStore;
+    private final MeterRegistry meterRegistry;
+    private final String checkpointId;
+    private final int checkpointEvents;
+    private final long checkpointIntervalMs;
+    private final long backoffInitialMs;
+    private final long backoffMaxMs;
+    private final int failureThreshold;
+    private final long openMs;
+    private final String heartbeatCollectionName;
+    private final long heartbeatIntervalMs;
+    private final long maxAwaitMs;
+    private final long reopenDelayMs;
+    private final int maxPushdownFilters;
+    private final int dispatchLaneCapacity;
+    private final String dispatchPartitionKey;
+
+    @Autowired
+    public ChangeStreamListenerImpl(MongoDatabase mongoDatabase, SubscriptionRouter subscriptionRouter, ResumeTokenStore resumeTokenStore,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${broker.change-stream.checkpoint-id:}") String checkpointId,
+                                    @Value("${server.port:8080}") int serverPort,
+                                    @Value("${broker.change-stream.checkpoint-events:100}") int checkpointEvents,
+                                    @Value("${broker.change-stream.checkpoint-interval-ms:1000}") long checkpointIntervalMs,
+                                    @Value("${broker.change-stream.backoff-initial-ms:100}") long backoffInitialMs,
+                                    @Value("${broker.change-stream.backoff-max-ms:30000}") long backoffMaxMs,
+                                    @Value("${broker.change-stream.circuit-breaker.failure-threshold:5}") int failureThreshold,
+                                    @Value("${broker.change-stream.circuit-breaker.open-ms:10000}") long openMs,
+                                    @Value("${broker.change-stream.heartbeat-collection:_heartbeats}") String heartbeatCollectionName,
+                                    @Value("${broker.change-stream.heartbeat-interval-ms:1000}") long heartbeatIntervalMs,
+                                    @Value("${broker.change-stream.max-await-ms:500}") long maxAwaitMs,
+                                    @Value("${broker.change-stream.reopen-delay-ms:500}") long reopenDelayMs,
+                                    @Value("${broker.change-stream.max-pushdown-filters:100}") int maxPushdownFilters,
+                                    @Value("${broker.dispatch.lanes:0}") int dispatchLanes,
+                                    @Value("${broker.dispatch.lane-capacity:1024}") int dispatchLaneCapacity,
+                                    @Value("${broker.dispatch.partition-key:topic}") String dispatchPartitionKey) {
+        this.mongoDatabase = mongoDatabase;
+        this.subscriptionRouter = subscriptionRouter;
+        this.resumeTokenStore = resumeTokenStore;
+        this.meterRegistry = meterRegistry;
+        this.checkpointId = checkpointId.isEmpty() ? nodeCheckpointId(serverPort) : checkpointId;
+        this.checkpointEvents = checkpointEvents;
+        this.checkpointIntervalMs = checkpointIntervalMs;
+        this.backoffInitialMs = backoffInitialMs;
+        this.backoffMaxMs = backoffMaxMs;
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+        this.heartbeatCollectionName = heartbeatCollectionName;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        this.maxAwaitMs = maxAwaitMs;
+        this.reopenDelayMs = reopenDelayMs;
+        this.maxPushdownFilters = maxPushdownFilters;
+        this.dispatchLaneCapacity = dispatchLaneCapacity;
+        this.dispatchPartitionKey = dispatchPartitionKey;
+
+        int lanes = (dispatchLanes > 0) ? dispatchLanes : Runtime.getRuntime().availableProcessors();
+        this.dispatcher = new PartitionedExecutor(lanes, dispatchLaneCapacity);
+        meterRegistry.gauge("broker.dispatch.queue.depth", this.dispatcher, PartitionedExecutor::getQueueDepth);
+    }
+
+    // stable across restarts of the node and distinct from the other nodes' on the same database
+    private static String nodeCheckpointId(int serverPort) {
+        try {
+            return InetAddress.getLocalHost().getHostName() + ":" + serverPort;
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("cannot derive a checkpoint id from the host name, set broker.change-stream.checkpoint-id", e);
+        }
+    }
+
+    @Override
+    public void start(Consumer<ChangeStreamDocument<RawBsonDocument>> consumer) {
+        Stream fullDocumentStream = new Stream(this.checkpointId, FullDocument.UPDATE_LOOKUP, false);
+        Stream deltaStream = new Stream(this.checkpointId + ":delta", FullDocument.DEFAULT, true);
+
+        synchronized (this.heartbeatLock) {
+            this.barrierVersion = this.subscriptionRouter.getVersion();
+            this.barriers.put(this.lastBarrier, new Routing(this.subscriptionRouter));
+        }
+
+        for (Stream stream : Arrays.asList(fullDocumentStream, deltaStream)) {
+            stream.routing = this.barriers.get(this.lastBarrier);
+            this.streams.add(stream);
+            stream.executor.execute(() -> this.listen(stream, consumer));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        this.streams.forEach(stream -> stream.executor.shutdownNow());
+
+        for (Stream stream : this.streams) {
+            if (!stream.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("mongo change stream: {} did not stop in time", stream.checkpointId);
+            }
+        }
+
+        this.dispatcher.shutdown();
+        // the listeners no longer move the checkpoints, the latest resume tokens are written before exiting
+        this.streams.forEach(stream -> stream.checkpointer.shutdown());
+    }
+
+    private void listen(Stream stream, Consumer<ChangeStreamDocument<RawBsonDocument>> consumer) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                stream.window.awaitEmpty();
+
+                if (stream.restart) {
+                    stream.checkpointer.update(null);
+                    stream.restart = false;
+                }
+
+                if (!stream.loaded) {
+                    BsonDocument resumeToken = this.resumeTokenStore.load(stream.checkpointId);
+                    if (resumeToken != null) {
+                        stream.checkpointer.update(resumeToken);
+                    }
+                    stream.loaded = true;
+                }
+
+                BsonDocument match = this.buildMatch(stream);
+                BsonDocument resumeToken = stream.checkpointer.getLatest();
+
+                ChangeStreamIterable<RawBsonDocument> changeStream = this.mongoDatabase
+                        .watch(Collections.singletonList(Aggregates.match(match)), RawBsonDocument.class)
+                        .fullDocument(stream.fullDocument)
+                        .maxAwaitTime(this.maxAwaitMs, TimeUnit.MILLISECONDS);
+
+                if (resumeToken != null) {
+                    changeStream = changeStream.resumeAfter(resumeToken);
+                }
+
+                LOGGER.info("mongo change stream: {} started, resuming: {}, match: {}", stream.checkpointId, resumeToken != null, match);
+                try (MongoCursor<ChangeStreamDocument<RawBsonDocument>> cursor = changeStream.iterator()) {
+                    long nextCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.reopenDelayMs);
+                    boolean served = false;
+
+                    while (!Thread.currentThread().isInterrupted()) {
+                        ChangeStreamDocument<RawBsonDocument> document = cursor.tryNext();
+
+                        // the listener never returns, a cursor that answered is what closes the stream's breaker
+                        if (!served) {
+                            stream.executor.getCircuitBreaker().recordSuccess();
+                            served = true;
+                        }
+
+                        if (document != null && this.isHeartbeat(document)) {
+                            this.checkpoint(stream, document);
+
+                            if (this.applyBarrier(stream, document.getFullDocument()) && !match.equals(this.buildMatch(stream))) {
+                                break;
+                            }
+                        } else if (document != null) {
+                            this.process(stream, consumer, document);
+                        }
+
+                        this.heartbeat(false);
+
+                        if (System.nanoTime() - nextCheck >= 0) {
+                            nextCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.reopenDelayMs);
+                            this.requestBarrier();
+                        }
+                    }
+                }
+                LOGGER.info("subscriptions changed, reopening mongo change stream: {}", stream.checkpointId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                if (e instanceof MongoException && NON_RESUMABLE_ERROR_CODES.contains(((MongoException) e).getCode())) {
+                    LOGGER.error("mongo change stream cannot be resumed, restarting from now", e);
+                    stream.restart = true;
+                }
+
+                LOGGER.error("mongo change stream: {} failed, reconnecting", stream.checkpointId);
+                throw e;
+            }
+        }
+    }
+
+    private void process(Stream stream, Consumer<ChangeStreamDocument<RawBsonDocument>> consumer, ChangeStreamDocument<RawBsonDocument> document)
+            throws InterruptedException {
+        long sequence = stream.window.begin(document.getResumeToken());
+        Object partitionKey = "id".equals(this.dispatchPartitionKey)
+                ? document.getDocumentKey()
+                : (document.getNamespace() != null ? document.getNamespace().getCollectionName() : null);
+
+        this.dispatcher.execute(partitionKey, () -> {
+            try {
+                consumer.accept(document);
+            } catch (RuntimeException e) {
+                LOGGER.error("failed to process change event: {}", document.getDocumentKey(), e);
+            } finally {
+                stream.window.complete(sequence, stream.checkpointer::update);
+            }
+        });
+    }
+
+    private boolean isHeartbeat(ChangeStreamDocument<RawBsonDocument> document) {
+        return document.getNamespace() != null && this.heartbeatCollectionName.equals(document.getNamespace().getCollectionName());
+    }
+
+    // a heartbeat is delivered to nobody, its token becomes the checkpoint once the events before it are processed
+    private void checkpoint(Stream stream, ChangeStreamDocument<RawBsonDocument> document) throws InterruptedException {
+        long sequence = stream.window.begin(document.getResumeToken());
+        stream.window.complete(sequence, stream.checkpointer::update);
+    }
+
+    // every stream matches the heartbeat writes, so their checkpoints advance while no subscribed event arrives and a
+    // reopened stream resumes from about now rather than from the last event it delivered
+    private void heartbeat(boolean force) {
+        long now = System.nanoTime();
+        long barrier;
+
+        synchronized (this.heartbeatLock) {
+            if (!force && this.lastHeartbeatAt != 0 && now - this.lastHeartbeatAt < TimeUnit.MILLISECONDS.toNanos(this.heartbeatIntervalMs)) {
+                return;
+            }
+            this.lastHeartbeatAt = now;
+            barrier = this.lastBarrier;
+        }
+
+        MongoCollection<BsonDocument> heartbeats = this.mongoDatabase.getCollection(this.heartbeatCollectionName, BsonDocument.class);
+        BsonDocument heartbeat = new BsonDocument("_id", new BsonString(this.checkpointId))
+                .append("node", new BsonString(this.node))
+                .append("barrier", new BsonInt64(barrier))
+                .append("at", new BsonDateTime(System.currentTimeMillis()));
+        heartbeats.replaceOne(Filters.eq("_id", this.checkpointId), heartbeat, new ReplaceOptions().upsert(true));
+    }
+
+    // once subscriptions change, a heartbeat carrying a snapshot of them is written as a barrier. Both streams see
+    // the barrier at the same position of the oplog and switch to the snapshot there, so a topic that moves from
+    // one stream to the other is delivered by exactly one of them on either side of the barrier
+    private void requestBarrier() {
+        long version = this.subscriptionRouter.getVersion();
+
+        synchronized (this.heartbeatLock) {
+            if (version == this.barrierVersion) {
+                return;
+            }
+            this.barrierVersion = version;
+            this.barriers.put(++this.lastBarrier, new Routing(this.subscriptionRouter));
+        }
+
+        this.heartbeat(true);
+    }
+
+    /**
+     * @return true if the stream switched to the subscriptions of a newer barrier
+     */
+    private boolean applyBarrier(Stream stream, RawBsonDocument heartbeat) {
+        BsonValue node = (heartbeat != null) ? heartbeat.get("node") : null;
+        BsonValue barrier = (heartbeat != null) ? heartbeat.get("barrier") : null;
+
+        if (node == null || !node.isString() || !this.node.equals(node.asString().getValue())
+                || barrier == null || !barrier.isInt64() || barrier.asInt64().getValue() <= stream.barrier) {
+            return false;
+        }
+
+        Routing routing = this.barriers.get(barrier.asInt64().getValue());
+
+        if (routing == null) {
+            return false;
+        }
+
+        stream.barrier = barrier.asInt64().getValue();
+        stream.routing = routing;
+        this.barriers.headMap(this.streams.stream().mapToLong(s -> s.barrier).min().orElse(0L)).clear();
+        return true;
+    }
+
+    private BsonDocument buildMatch(Stream stream) {
+        List<String> topics = new ArrayList<>();
+        List<Bson> topicFilters = new ArrayList<>();
+        Set<String> deltaOnlyTopics = stream.routing.deltaOnlyTopics;
+
+        stream.routing.topicFilters.forEach((topic, filters) -> {
+            if (deltaOnlyTopics.contains(topic) != stream.deltaOnly) {
+                return;
+            }
+
+            Bson fullDocumentFilter = stream.deltaOnly ? null : this.buildFullDocumentFilter(filters);
+            Bson collectionFilter = Subscription.isTopicPattern(topic)
+                    ? Filters.regex("ns.coll", prefixRegex(Subscription.getTopicPrefix(topic)))
+                    : null;
+
+            if (fullDocumentFilter == null && collectionFilter == null) {
+                topics.add(topic);
+            } else if (fullDocumentFilter == null) {
+                topicFilters.add(collectionFilter);
+            } else {
+                topicFilters.add(Filters.and(collectionFilter != null ? collectionFilter : Filters.eq("ns.coll", topic), fullDocumentFilter));
+            }
+        });
+
+        topicFilters.add(0, Filters.in("ns.coll", topics));
+        topicFilters.add(Filters.eq("ns.coll", this.heartbeatCollectionName));
+
+        return Filters.and(
+                Filters.in("operationType", Arrays.asList("insert", "update", "replace")),
+                Filters.ne("ns.coll", this.resumeTokenStore.getCollectionName()),
+                Filters.or(topicFilters)
+        ).toBsonDocument(BsonDocument.class, this.mongoDatabase.getCodecRegistry());
+    }
+
+    private Bson buildFullDocumentFilter(List<Map<String, Object>> filters) {
+        if (filters.size() > this.maxPushdownFilters) {
+            return null;
+        }
+
+        List<Bson> alternatives = new ArrayList<>(filters.size());
+
+        for (Map<String, Object> filter : filters) {
+            if (filter.isEmpty()) {
+                return null;
+            }
+
+            List<Bson> conditions = new ArrayList<>(filter.size());
+
+            for (Map.Entry<String, Object> entry : filter.entrySet()) {
+                if (!isPushdownSafe(entry.getKey(), entry.getValue())) {
+                    return null;
+                }
+
+                conditions.add(Filters.eq("fullDocument." + entry.getKey(), entry.getValue()));
+            }
+
+            alternatives.add(conditions.size() == 1 ? conditions.get(0) : Filters.and(conditions));
+        }
+
+        return alternatives.size() == 1 ? alternatives.get(0) : Filters.or(alternatives);
+    }
+
+    private static String prefixRegex(String prefix) {
+        StringBuilder regex = new StringBuilder("^");
+
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                regex.append('\\');
+            }
+            regex.append(c);
+        }
+
+        return regex.toString();
+    }
+
+    // only scalar equality on top-level fields means the same thing to mongo and to the in-process matcher
+    private static boolean isPushdownSafe(String key, Object value) {
+        return key.indexOf('.') < 0 && !key.startsWith("$")
+                && (value instanceof String || value instanceof Number || value instanceof Boolean);
+    }
+
+    private class Stream {
+        private final String checkpointId;
+        private final FullDocument fullDocument;
+        private final boolean deltaOnly;
+        private final Checkpointer<BsonDocument> checkpointer;
+        private final CompletionWindow<BsonDocument> window;
+        private final RetryExecutor executor;
+        private volatile boolean loaded;
+        private volatile boolean restart;
+        private volatile Routing routing;
+        private volatile long barrier;
+
+        private Stream(String checkpointId, FullDocument fullDocument, boolean deltaOnly) {
+            this.checkpointId = checkpointId;
+            this.fullDocument = fullDocument;
+            this.deltaOnly = deltaOnly;
+            this.checkpointer = new Checkpointer<>(checkpointEvents, checkpointIntervalMs,
+                    resumeToken -> resumeTokenStore.save(checkpointId, resumeToken));
+            this.window = new CompletionWindow<>(dispatcher.getLanes() * dispatchLaneCapacity);
+            // a failed stream is reopened after a backoff and never given up, each stream has its own breaker
+            this.executor = Executors2.newRetryExecutor(1, Long.MAX_VALUE, backoffInitialMs, backoffMaxMs, failureThreshold, openMs);
+            meterRegistry.gauge("broker.changestream.in.flight", Collections.singletonList(Tag.of("stream", checkpointId)),
+                    this.window, CompletionWindow::size);
+        }
+    }
+
+    // the subscriptions a stream is opened for
+    private static class Routing {
+        private final Map<String, List<Map<String, Object>>> topicFilters;
+        private final Set<String> deltaOnlyTopics;
+
+        private Routing(SubscriptionRouter subscriptionRouter) {
+            this.topicFilters = new HashMap<>(subscriptionRouter.getTopicFilters());
+            this.deltaOnlyTopics = new HashSet<>(subscriptionRouter.getDeltaOnlyTopics());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.alternate.messagebroker.services.impl;
+
+import com.alternate.common.util.PartitionedExecutor;
+import com.alternate.messagebroker.models.AckMode;
+import com.alternate.messagebroker.models.DeliveryMode;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.models.ReplayFrom;
+import com.alternate.messagebroker.models.Subscription;
+import com.alternate.messagebroker.services.MessageBroker;
+import com.alternate.messagebroker.services.MessageHistory;
+import com.alternate.messagebroker.services.SubscriptionRouter;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stand-in for the mongo backed broker: published messages are routed to subscribers on the dispatch lanes as
+ * if they had come back as insert (or, with an _id, replace) events from the change stream. Used to load test
+ * the websocket side without a replica set.
+ */
+@Service
+@Profile("in-memory")
+public class InMemoryMessageBrokerImpl implements MessageBroker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryMessageBrokerImpl.class);
+
+    private final SubscriptionRouter subscriptionRouter;
+    private final MessageHistory messageHistory;
+    private final PartitionedExecutor dispatcher;
+    private final int replayMaxPending;
+
+    @Autowired
+    public InMemoryMessageBrokerImpl(SubscriptionRouter subscriptionRouter, MessageHistory messageHistory,
+                                     @Value("${broker.dispatch.lanes:0}") int dispatchLanes,
+                                     @Value("${broker.dispatch.lane-capacity:1024}") int dispatchLaneCapacity,
+                                     @Value("${broker.replay.max-pending:10000}") int replayMaxPending) {
+        this.subscriptionRouter = subscriptionRouter;
+        this.messageHistory = messageHistory;
+        this.replayMaxPending = replayMaxPending;
+
+        int lanes = (dispatchLanes > 0) ? dispatchLanes : Runtime.getRuntime().availableProcessors();
+        this.dispatcher = new PartitionedExecutor(lanes, dispatchLaneCapacity);
+        LOGGER.warn("in-memory broker active, published messages are not persisted");
+    }
+
+    @Override
+    public Mono<String> publish(String topic, Map<String, Object> payload, AckMode ackMode) {
+        String id = (payload.get("_id") instanceof String) ? (String) payload.get("_id") : new ObjectId().toHexString();
+        Document document = new Document(payload);
+        document.put("_id", id);
+
+        MessageWrapper messageWrapper = MessageWrapper.builder()
+                .withTopic(topic)
+                .withId(id)
+                .withOperationType(payload.containsKey("_id") ? "replace" : "insert")
+                .withPayload(document)
+                .withTimestamp(System.currentTimeMillis())
+                .build();
+
+        try {
+            this.dispatcher.execute(topic, () -> this.subscriptionRouter.route(this.messageHistory.record(messageWrapper)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Mono.error(e);
+        }
+        LOGGER.debug("client submitted message to topic: {}", topic);
+        return Mono.just(id);
+    }
+
+    @Override
+    public List<Mono<String>> publishAll(List<String> topics, List<Map<String, Object>> payloads, AckMode ackMode) {
+        List<Mono<String>> acknowledgements = new ArrayList<>(topics.size());
+        for (int i = 0; i < topics.size(); i++) {
+            acknowledgements.add(this.publish(topics.get(i), payloads.get(i), ackMode));
+        }
+        return acknowledgements;
+    }
+
+    @Override
+    public Flux<MessageWrapper> subscribe(String topic, Map<String, Object> filter, DeliveryMode deliveryMode, ReplayFrom replayFrom) {
+        Flux<MessageWrapper> messageWrapperFlux = Flux.create(sink -> {
+            ReplayingConsumer replayingConsumer = (replayFrom != null) ? new ReplayingConsumer(sink::next, sink::error, this.replayMaxPending) : null;
+            Subscription subscription = Subscription.builder()
+                    .withTopic(topic)
+                    .withFilter(filter)
+                    .withDeliveryMode(deliveryMode)
+                    .withConsumer(replayingConsumer != null ? replayingConsumer : sink::next)
+                    .build();
+            sink.onDispose(() -> this.subscriptionRouter.removeSubscription(subscription));
+            this.subscriptionRouter.addSubscription(subscription);
+
+            // nothing older than the history is kept, so there is no fallback to read from
+            if (replayingConsumer != null) {
+                replayingConsumer.replay(subscription, replayFrom, this.messageHistory.snapshot(topic), null);
+            }
+        });
+
+        LOGGER.info("client subscribed to topic: {}", topic);
+        return messageWrapperFlux;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        this.dispatcher.shutdown();
+    }
+}
@@ -1,123 +1,573 @@
 package com.alternate.messagebroker.services.impl;
 
+import com.alternate.common.util.BatchingQueue;
+import com.alternate.common.util.CircuitBreaker;
 import com.alternate.common.util.Executors2;
+import com.alternate.common.util.ExpiringMultiset;
+import com.alternate.common.util.PartitionedExecutor;
+import com.alternate.common.util.RetryExecutor;
+import com.alternate.messagebroker.exceptions.PublishRejectedException;
+import com.alternate.messagebroker.models.AckMode;
+import com.alternate.messagebroker.models.DeliveryMode;
 import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.models.ReplayFrom;
+import com.alternate.messagebroker.models.Subscription;
+import com.alternate.messagebroker.services.ChangeEventMapper;
+import com.alternate.messagebroker.services.ChangeStreamListener;
 import com.alternate.messagebroker.services.MessageBroker;
-import com.mongodb.client.MongoCollection;
+import com.alternate.messagebroker.services.MessageHistory;
+import com.alternate.messagebroker.services.SubscriptionRouter;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.model.changestream.ChangeStreamDocument;
 import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
 import org.bson.Document;
-import org.bson.conversions.Bson;
+import org.bson.RawBsonDocument;
 import org.bson.types.ObjectId;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
-import reactor.core.publisher.DirectProcessor;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.Consumer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 @Service
+@Profile("!in-memory")
 public class MessageBrokerImpl implements MessageBroker {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MessageBrokerImpl.class);
 
-    private ExecutorService executor;
-    private Flux<MessageWrapper> messagFlux;
-    private FluxSink<MessageWrapper> messagFluxSink;
+    private static final long REPLAY_MAX_AWAIT_MILLIS = 500;
 
+    private final Map<String, CompletableFuture<Void>> topicWrites = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Counter>> changeStreamCounters = new ConcurrentHashMap<>();
+    private final Map<String, Integer> pendingByTopic = new HashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
     private final MongoDatabase mongoDatabase;
+    private final com.mongodb.reactivestreams.client.MongoDatabase reactiveMongoDatabase;
+    private final SubscriptionRouter subscriptionRouter;
+    private final ChangeStreamListener changeStreamListener;
+    private final ChangeEventMapper changeEventMapper;
+    private final MessageHistory messageHistory;
+    private final MeterRegistry meterRegistry;
+    private final Timer persistTimer;
+    private final DistributionSummary persistBatchSize;
+    private final Timer lagTimer;
+    private final Timer routeTimer;
+    private final Counter rejectedCounter;
+    private final Counter topicRejectedCounter;
+    private final BatchingQueue<PublishKey, PendingMessage> publishQueue;
+    private final Semaphore inFlightBatches;
+    private final RetryExecutor writeExecutor;
+    private final PartitionedExecutor localDispatcher;
+    private final ExpiringMultiset<String> pendingEchoes;
+    private final ExecutorService replayExecutor;
+    private final int maxPending;
+    private final int maxPendingPerTopic;
+    private final long retryAfterMs;
+    private final boolean localDelivery;
+    private final int replayBatchSize;
+    private final int replayMaxPending;
+    private final long replayMaxIdleMs;
+    private final String heartbeatCollectionName;
 
     @Autowired
-    public MessageBrokerImpl(MongoDatabase mongoDatabase) {
+    public MessageBrokerImpl(MongoDatabase mongoDatabase, com.mongodb.reactivestreams.client.MongoDatabase reactiveMongoDatabase,
+                             SubscriptionRouter subscriptionRouter, ChangeStreamListener changeStreamListener,
+                             ChangeEventMapper changeEventMapper, MessageHistory messageHistory, MeterRegistry meterRegistry,
+                             @Value("${broker.publish.batch-size:128}") int publishBatchSize,
+                             @Value("${broker.publish.linger-ms:0}") long publishLingerMs,
+                             @Value("${broker.publish.max-in-flight-batches:16}") int maxInFlightBatches,
+                             @Value("${broker.publish.max-pending:100000}") int maxPending,
+                             @Value("${broker.publish.max-pending-per-topic:20000}") int maxPendingPerTopic,
+                             @Value("${broker.publish.retry-after-ms:100}") long retryAfterMs,
+                             @Value("${broker.publish.retry.max-retries:3}") int maxWriteRetries,
+                             @Value("${broker.publish.retry.backoff-initial-ms:50}") long writeBackoffInitialMs,
+                             @Value("${broker.publish.retry.backoff-max-ms:2000}") long writeBackoffMaxMs,
+                             @Value("${broker.publish.retry.circuit-breaker.failure-threshold:10}") int writeFailureThreshold,
+                             @Value("${broker.publish.retry.circuit-breaker.open-ms:5000}") long writeOpenMs,
+                             @Value("${broker.publish.local-delivery:false}") boolean localDelivery,
+                             @Value("${broker.publish.echo-ttl-ms:60000}") long echoTtlMs,
+                             @Value("${broker.replay.threads:4}") int replayThreads,
+                             @Value("${broker.replay.batch-size:1000}") int replayBatchSize,
+                             @Value("${broker.replay.max-pending:10000}") int replayMaxPending,
+                             @Value("${broker.replay.max-idle-ms:10000}") long replayMaxIdleMs,
+                             @Value("${broker.change-stream.heartbeat-collection:_heartbeats}") String heartbeatCollectionName,
+                             @Value("${broker.dispatch.lanes:0}") int dispatchLanes,
+                             @Value("${broker.dispatch.lane-capacity:1024}") int dispatchLaneCapacity) {
         this.mongoDatabase = mongoDatabase;
-        this.init();
+        this.reactiveMongoDatabase = reactiveMongoDatabase;
+        this.subscriptionRouter = subscriptionRouter;
+        this.changeStreamListener = changeStreamListener;
+        this.changeEventMapper = changeEventMapper;
+        this.messageHistory = messageHistory;
+        this.meterRegistry = meterRegistry;
+        this.maxPending = maxPending;
+        this.maxPendingPerTopic = maxPendingPerTopic;
+        this.retryAfterMs = retryAfterMs;
+        this.localDelivery = localDelivery;
+        this.replayBatchSize = replayBatchSize;
+        this.replayMaxPending = replayMaxPending;
+        this.replayMaxIdleMs = replayMaxIdleMs;
+        this.heartbeatCollectionName = heartbeatCollectionName;
+
+        this.persistTimer = Timer.builder("broker.publish.persist")
+                .description("time to write one batch of published messages to mongo")
+                .register(meterRegistry);
+        this.persistBatchSize = DistributionSummary.builder("broker.publish.batch.size")
+                .description("messages per persisted batch")
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("broker.changestream.lag")
+                .description("wall clock time since the change event's cluster time")
+                .register(meterRegistry);
+        this.routeTimer = Timer.builder("broker.dispatch.route")
+                .description("time to match one change event against subscriptions and hand it to them")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("broker.publish.rejected")
+                .description("messages rejected because too many messages were waiting to be written")
+                .tag("reason", "total")
+                .register(meterRegistry);
+        this.topicRejectedCounter = Counter.builder("broker.publish.rejected")
+                .description("messages rejected because too many messages were waiting to be written")
+                .tag("reason", "topic")
+                .register(meterRegistry);
+        meterRegistry.gauge("broker.publish.pending", this.pending);
+
+        this.publishQueue = new BatchingQueue<>(publishBatchSize, publishLingerMs, this::persistDocuments);
+        this.inFlightBatches = new Semaphore(maxInFlightBatches);
+        // attempts only start the writes, one thread is enough
+        this.writeExecutor = Executors2.newRetryExecutor(1, maxWriteRetries, writeBackoffInitialMs, writeBackoffMaxMs,
+                writeFailureThreshold, writeOpenMs, MessageBrokerImpl::isTransient);
+        meterRegistry.gauge("broker.publish.circuit.open", this.writeExecutor,
+                executor -> (executor.getCircuitBreaker().getState() == CircuitBreaker.State.CLOSED) ? 0 : 1);
+        meterRegistry.gauge("broker.publish.queue.depth", this.publishQueue, BatchingQueue::size);
+        this.replayExecutor = Executors.newFixedThreadPool(replayThreads);
+
+        if (localDelivery) {
+            int lanes = (dispatchLanes > 0) ? dispatchLanes : Runtime.getRuntime().availableProcessors();
+            this.localDispatcher = new PartitionedExecutor(lanes, dispatchLaneCapacity);
+            this.pendingEchoes = new ExpiringMultiset<>(echoTtlMs);
+            meterRegistry.gauge("broker.publish.local.pending.echoes", this.pendingEchoes, ExpiringMultiset::size);
+        } else {
+            this.localDispatcher = null;
+            this.pendingEchoes = null;
+        }
+
+        // last, the listener calls back into the broker as soon as it is started
+        changeStreamListener.start(this::processDocument);
     }
 
     @Override
-    public void publish(String topic, Map<String, Object> payload) {
-        this.executor.submit(() -> this.persistDocument(topic, payload));
-        LOGGER.info("client submitted message to topic: {}", topic);
+    public Mono<String> publish(String topic, Map<String, Object> payload, AckMode ackMode) {
+        this.admit(Collections.singletonList(topic));
+        return this.submit(topic, payload, ackMode);
     }
 
     @Override
-    public Flux<Map<String, Object>> subscribe(String topic, Map<String, Object> filter) {
-        Flux<MessageWrapper> messageWrapperFlux = this.messagFlux
-                .filter(messageWrapper -> messageWrapper.getTopic().equals(topic));
+    public List<Mono<String>> publishAll(List<String> topics, List<Map<String, Object>> payloads, AckMode ackMode) {
+        this.admit(topics);
 
-        for (String key : filter.keySet()) {
-            Object value = filter.get(key);
-            messageWrapperFlux = messageWrapperFlux
-                    .filter(m -> m.getPayload().get(key).equals(value));
+        List<Mono<String>> acknowledgements = new ArrayList<>(topics.size());
+        for (int i = 0; i < topics.size(); i++) {
+            acknowledgements.add(this.submit(topics.get(i), payloads.get(i), ackMode));
         }
+        return acknowledgements;
+    }
+
+    private Mono<String> submit(String topic, Map<String, Object> payload, AckMode ackMode) {
+        if (this.localDelivery) {
+            this.deliverLocally(topic, payload);
+        }
+
+        CompletableFuture<String> acknowledgement = new CompletableFuture<>();
+        acknowledgement.whenComplete((id, error) -> this.release(topic));
+        this.publishQueue.submit(new PublishKey(topic, ackMode), new PendingMessage(payload, acknowledgement));
+        LOGGER.info("client submitted message to topic: {}", topic);
+        return Mono.fromFuture(acknowledgement);
+    }
+
+    @Override
+    public Flux<MessageWrapper> subscribe(String topic, Map<String, Object> filter, DeliveryMode deliveryMode, ReplayFrom replayFrom) {
+        Flux<MessageWrapper> messageWrapperFlux = Flux.create(sink -> {
+            ReplayingConsumer replayingConsumer = (replayFrom != null) ? new ReplayingConsumer(sink::next, sink::error, this.replayMaxPending) : null;
+            Subscription subscription = Subscription.builder()
+                    .withTopic(topic)
+                    .withFilter(filter)
+                    .withDeliveryMode(deliveryMode)
+                    .withConsumer(replayingConsumer != null ? replayingConsumer : sink::next)
+                    .build();
+            sink.onDispose(() -> this.subscriptionRouter.removeSubscription(subscription));
+            this.subscriptionRouter.addSubscription(subscription);
+
+            if (replayingConsumer != null) {
+                this.replayExecutor.execute(() -> replayingConsumer.replay(subscription, replayFrom,
+                        this.messageHistory.snapshot(topic), (from, consumer) -> this.readHistory(topic, from, consumer)));
+            }
+        });
 
         LOGGER.info("client subscribed to topic: {}", topic);
-        return messageWrapperFlux
-                .map(MessageWrapper::getPayload);
+        return messageWrapperFlux;
     }
 
-    private void init() {
-        this.executor = Executors.newSingleThreadExecutor();
+    // messages count against the quotas from being admitted until their write has completed or failed
+    private void admit(List<String> topics) {
+        Map<String, Integer> counts = new HashMap<>();
+        topics.forEach(topic -> counts.merge(topic, 1, Integer::sum));
 
-        final DirectProcessor<MessageWrapper> directProcessor = DirectProcessor.create();
-        this.messagFlux = directProcessor.onBackpressureBuffer();
-        this.messagFluxSink = directProcessor.sink();
+        synchronized (this.pendingByTopic) {
+            if (this.pending.get() + topics.size() > this.maxPending) {
+                this.rejectedCounter.increment(topics.size());
+                throw new PublishRejectedException("too many messages waiting to be written", this.retryAfterMs);
+            }
 
-        this.initChangeStreamListener();
+            for (Map.Entry<String, Integer> count : counts.entrySet()) {
+                if (this.pendingByTopic.getOrDefault(count.getKey(), 0) + count.getValue() > this.maxPendingPerTopic) {
+                    this.topicRejectedCounter.increment(topics.size());
+                    throw new PublishRejectedException("too many messages waiting to be written to topic: " + count.getKey(), this.retryAfterMs);
+                }
+            }
+
+            this.pending.addAndGet(topics.size());
+            counts.forEach((topic, count) -> this.pendingByTopic.merge(topic, count, Integer::sum));
+        }
     }
 
-    private void initChangeStreamListener() {
-        List<Bson> pipeline = Collections.singletonList(Aggregates.match(
-                Filters.in("operationType", Arrays.asList("insert", "update", "replace"))
-        ));
+    private void release(String topic) {
+        synchronized (this.pendingByTopic) {
+            this.pending.decrementAndGet();
+            this.pendingByTopic.computeIfPresent(topic, (t, count) -> (count > 1) ? count - 1 : null);
+        }
+    }
 
-        Executors2.newRetrySingleThreadExecutor(5).submit(() -> {
-            LOGGER.info("mongo change stream listener started");
-            this.mongoDatabase
-                    .watch(pipeline)
-                    .fullDocument(FullDocument.UPDATE_LOOKUP)
-                    .forEach((Consumer<? super ChangeStreamDocument<Document>>) this::processDocument);
-        });
+    @PreDestroy
+    private void destroy() {
+        RejectedExecutionException shutDown = new RejectedExecutionException("broker shut down");
+        this.publishQueue.shutdown().forEach(message -> message.acknowledgement.completeExceptionally(shutDown));
+        this.writeExecutor.shutdownNow();
+        this.replayExecutor.shutdownNow();
+
+        if (this.localDispatcher != null) {
+            this.localDispatcher.shutdown();
+        }
     }
 
-    private void processDocument(ChangeStreamDocument<Document> document) {
-        String topic = document.getNamespace() != null ? document.getNamespace().getCollectionName() : "null";
-        Map<String, Object> payload = document.getFullDocument();
-        String id = document.getDocumentKey().get("_id").asObjectId().getValue().toString();
-        payload.put("_id", id);
+    // local subscribers get the message before it is written, the change stream echo of it is skipped
+    private void deliverLocally(String topic, Map<String, Object> payload) {
+        Object id = payload.get("_id");
+
+        if (id == null) {
+            id = new ObjectId();
+            payload.put("_id", id);
+        }
 
-        this.messagFluxSink.next(MessageWrapper.builder()
+        Document document = new Document(payload);
+        document.put("_id", id.toString());
+
+        MessageWrapper messageWrapper = this.messageHistory.record(MessageWrapper.builder()
                 .withTopic(topic)
-                .withPayload(payload)
+                .withId(id.toString())
+                .withOperationType((id instanceof ObjectId) ? "insert" : "replace")
+                .withPayload(document)
+                .withTimestamp(System.currentTimeMillis())
                 .build());
-        LOGGER.info("message published to topic: {}", id, topic);
+
+        this.pendingEchoes.add(topic + ":" + messageWrapper.getId());
+
+        try {
+            this.localDispatcher.execute(topic, () -> this.routeTimer.record(() -> this.subscriptionRouter.route(messageWrapper)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private void persistDocument(String topic, Map<String, Object> payload) {
-        MongoCollection<Document> collection = this.mongoDatabase.getCollection(topic);
+    private void processDocument(ChangeStreamDocument<RawBsonDocument> document) {
+        MessageWrapper changeEvent = this.changeEventMapper.toMessageWrapper(document);
+
+        if (this.localDelivery && this.pendingEchoes.remove(changeEvent.getTopic() + ":" + changeEvent.getId())) {
+            LOGGER.debug("message: {} on topic: {} already delivered locally", changeEvent.getId(), changeEvent.getTopic());
+            return;
+        }
 
-        String id = (String) payload.get("_id");
-        payload.remove("_id");
+        MessageWrapper messageWrapper = this.messageHistory.record(changeEvent);
 
-        Document document = new Document();
-        payload.forEach(document::append);
+        this.changeStreamCounter(messageWrapper.getTopic(), document.getOperationType().getValue()).increment();
 
-        if (id == null) {
-            collection.insertOne(document);
-        } else {
-            collection.replaceOne(Filters.eq("_id", new ObjectId(id)), document, new ReplaceOptions().upsert(true));
+        if (document.getClusterTime() != null) {
+            long lagMillis = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(document.getClusterTime().getTime());
+            this.lagTimer.record(Math.max(lagMillis, 0), TimeUnit.MILLISECONDS);
+        }
+
+        this.routeTimer.record(() -> this.subscriptionRouter.route(messageWrapper));
+        LOGGER.info("message: {} published to topic: {}", messageWrapper.getId(), messageWrapper.getTopic());
+    }
+
+    private Counter changeStreamCounter(String topic, String operation) {
+        return this.changeStreamCounters
+                .computeIfAbsent(topic, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(operation, k -> Counter.builder("broker.changestream.events")
+                        .tag("topic", topic)
+                        .tag("operation", operation)
+                        .register(this.meterRegistry));
+    }
+
+    // reads the topic's change stream from the given point up to the moment of the call, or until the consumer stops
+    private void readHistory(String topic, ReplayFrom replayFrom, Predicate<MessageWrapper> consumer) {
+        if (replayFrom.getType() != ReplayFrom.Type.POSITION && replayFrom.getType() != ReplayFrom.Type.TIMESTAMP) {
+            return;
+        }
+
+        // the subscription is already registered, so every event after a marker written now reaches it live and
+        // the replay reads up to the marker, however long the server takes to return the events before it
+        BsonString marker = new BsonString("replay:" + new ObjectId().toHexString());
+        com.mongodb.client.MongoCollection<BsonDocument> markers = this.mongoDatabase.getCollection(this.heartbeatCollectionName, BsonDocument.class);
+        int replayed = 0;
+
+        try {
+            markers.insertOne(new BsonDocument("_id", marker));
+
+            ChangeStreamIterable<RawBsonDocument> changeStream = this.mongoDatabase
+                    .watch(Collections.singletonList(Aggregates.match(Filters.or(
+                            Filters.and(Filters.eq("ns.coll", topic), Filters.in("operationType", Arrays.asList("insert", "update", "replace"))),
+                            Filters.and(Filters.eq("ns.coll", this.heartbeatCollectionName), Filters.eq("documentKey._id", marker))))),
+                            RawBsonDocument.class)
+                    .fullDocument(FullDocument.UPDATE_LOOKUP)
+                    .batchSize(this.replayBatchSize)
+                    .maxAwaitTime(REPLAY_MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (replayFrom.getType() == ReplayFrom.Type.POSITION) {
+                String position = replayFrom.getPosition();
+                changeStream = changeStream.resumeAfter(position.startsWith("{")
+                        ? BsonDocument.parse(position)
+                        : new BsonDocument("_data", new BsonString(position)));
+            } else {
+                changeStream = changeStream.startAtOperationTime(
+                        new BsonTimestamp((int) TimeUnit.MILLISECONDS.toSeconds(replayFrom.getTimestamp()), 0));
+            }
+
+            try (MongoCursor<ChangeStreamDocument<RawBsonDocument>> cursor = changeStream.iterator()) {
+                long idleSince = System.nanoTime();
+
+                while (true) {
+                    ChangeStreamDocument<RawBsonDocument> document = cursor.tryNext();
+
+                    if (document == null) {
+                        if (System.nanoTime() - idleSince > TimeUnit.MILLISECONDS.toNanos(this.replayMaxIdleMs)) {
+                            LOGGER.warn("replay of topic: {} from mongo did not reach its end marker, messages may be missing", topic);
+                            break;
+                        }
+                        continue;
+                    }
+
+                    if (!topic.equals(document.getNamespace().getCollectionName())
+                            || !consumer.test(this.changeEventMapper.toMessageWrapper(document))) {
+                        break;
+                    }
+
+                    replayed++;
+                    idleSince = System.nanoTime();
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("replay of topic: {} from mongo failed after {} messages, continuing from the history cache", topic, replayed, e);
+        } finally {
+            try {
+                markers.deleteOne(Filters.eq("_id", marker));
+            } catch (RuntimeException e) {
+                LOGGER.warn("failed to remove replay marker: {}", marker.getValue(), e);
+            }
+        }
+        LOGGER.info("replayed {} messages of topic: {} from mongo", replayed, topic);
+    }
+
+    // writes are issued without waiting for them, batches of one topic are chained so that they apply in publish order
+    private void persistDocuments(PublishKey key, List<PendingMessage> messages) {
+        List<Document> inserts = new ArrayList<>(messages.size());
+        List<WriteModel<Document>> writeModels = new ArrayList<>(messages.size());
+        List<WriteModel<Document>> retryModels = new ArrayList<>(messages.size());
+        List<PendingMessage> written = new ArrayList<>(messages.size());
+        List<Object> ids = new ArrayList<>(messages.size());
+        Set<String> replacedIds = new HashSet<>();
+        boolean ordered = false;
+
+        for (PendingMessage message : messages) {
+            Object id = message.payload.remove("_id");
+
+            if (id != null && !(id instanceof ObjectId) && !(id instanceof String && ObjectId.isValid((String) id))) {
+                message.acknowledgement.completeExceptionally(new IllegalArgumentException("invalid _id: " + id));
+                continue;
+            }
+
+            Document document = new Document();
+            message.payload.forEach(document::append);
+
+            if (id == null || id instanceof ObjectId) {
+                // the id is assigned here rather than by the driver, so that a retry writes the same document again
+                ObjectId insertedId = (id != null) ? (ObjectId) id : new ObjectId();
+                document.put("_id", insertedId);
+                inserts.add(document);
+                writeModels.add(new InsertOneModel<>(document));
+                retryModels.add(new ReplaceOneModel<>(Filters.eq("_id", insertedId), document, new ReplaceOptions().upsert(true)));
+                ids.add(insertedId);
+            } else {
+                // repeated writes to the same _id must be applied in publish order
+                ordered |= !replacedIds.add((String) id);
+                ReplaceOneModel<Document> replace = new ReplaceOneModel<>(Filters.eq("_id", new ObjectId((String) id)), document,
+                        new ReplaceOptions().upsert(true));
+                writeModels.add(replace);
+                retryModels.add(replace);
+                ids.add(id);
+            }
+            written.add(message);
+        }
+
+        if (writeModels.isEmpty()) {
+            return;
+        }
+
+        try {
+            this.inFlightBatches.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            written.forEach(message -> message.acknowledgement.completeExceptionally(e));
+            return;
+        }
+
+        MongoCollection<Document> collection = this.reactiveMongoDatabase.getCollection(key.topic)
+                .withWriteConcern(writeConcern(key.ackMode));
+        Publisher<?> write = (inserts.size() == writeModels.size())
+                ? collection.insertMany(inserts, new InsertManyOptions().ordered(false))
+                : collection.bulkWrite(writeModels, new BulkWriteOptions().ordered(ordered));
+        // an earlier attempt may have applied part of the batch, upserting every document by its id is idempotent
+        Publisher<?> retryWrite = collection.bulkWrite(retryModels, new BulkWriteOptions().ordered(ordered));
+
+        int[] attempts = new int[1];
+        CompletableFuture<Void> persisted = this.topicWrites.getOrDefault(key.topic, CompletableFuture.completedFuture(null))
+                .thenCompose(v -> this.writeExecutor.executeAsync(() -> {
+                    Timer.Sample sample = Timer.start(this.meterRegistry);
+                    return Mono.from((attempts[0]++ == 0) ? write : retryWrite)
+                            .doFinally(signal -> sample.stop(this.persistTimer))
+                            .then()
+                            .toFuture();
+                }));
+        CompletableFuture<Void> tail = persisted.handle((v, e) -> null);
+        this.topicWrites.put(key.topic, tail);
+
+        persisted.whenComplete((v, error) -> {
+            this.inFlightBatches.release();
+            this.topicWrites.remove(key.topic, tail);
+
+            if (error != null) {
+                LOGGER.error("failed to persist batch of {} messages to topic: {}", written.size(), key.topic, error);
+                written.forEach(message -> message.acknowledgement.completeExceptionally(error));
+                return;
+            }
+
+            for (int i = 0; i < written.size(); i++) {
+                written.get(i).acknowledgement.complete(String.valueOf(ids.get(i)));
+            }
+            this.persistBatchSize.record(written.size());
+            LOGGER.info("persisted batch of {} messages to topic: {}", written.size(), key.topic);
+        });
+    }
+
+    // errors of an unavailable or overloaded server, a write that failed with them may succeed when retried
+    private static boolean isTransient(Throwable error) {
+        return error instanceof MongoSocketException
+                || error instanceof MongoTimeoutException
+                || error instanceof MongoNotPrimaryException
+                || error instanceof MongoNodeIsRecoveringException;
+    }
+
+    private static WriteConcern writeConcern(AckMode ackMode) {
+        switch (ackMode) {
+            case JOURNALED:
+                return WriteConcern.JOURNALED;
+            case MAJORITY:
+                return WriteConcern.MAJORITY;
+            default:
+                return WriteConcern.ACKNOWLEDGED;
+        }
+    }
+
+    private static class PublishKey {
+        private final String topic;
+        private final AckMode ackMode;
+
+        private PublishKey(String topic, AckMode ackMode) {
+            this.topic = topic;
+            this.ackMode = ackMode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PublishKey)) {
+                return false;
+            }
+            PublishKey other = (PublishKey) o;
+            return this.topic.equals(other.topic) && this.ackMode == other.ackMode;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.topic, this.ackMode);
+        }
+    }
+
+    private static class PendingMessage {
+        private final Map<String, Object> payload;
+        private final CompletableFuture<String> acknowledgement;
+
+        private PendingMessage(Map<String, Object> payload, CompletableFuture<String> acknowledgement) {
+            this.payload = payload;
+            this.acknowledgement = acknowledgement;
         }
     }
 }
@@ -0,0 +1,121 @@
+package com.alternate.messagebroker.services.impl;
+
+import com.alternate.messagebroker.models.LazyDocument;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.services.MessageHistory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recent messages of every topic, each numbered with a per-topic sequence as it is recorded. A topic keeps at
+ * most {@code maxMessages} messages and roughly {@code maxBytes} of payload, oldest messages are evicted first.
+ */
+@Service
+public class MessageHistoryImpl implements MessageHistory {
+
+    private final Map<String, TopicHistory> topics = new ConcurrentHashMap<>();
+    private final int maxMessages;
+    private final long maxBytes;
+
+    @Autowired
+    public MessageHistoryImpl(@Value("${broker.replay.max-messages-per-topic:10000}") int maxMessages,
+                              @Value("${broker.replay.max-bytes-per-topic:16777216}") long maxBytes,
+                              MeterRegistry meterRegistry) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+
+        meterRegistry.gauge("broker.replay.cache.bytes", this.topics,
+                topics -> topics.values().stream().mapToLong(TopicHistory::bytes).sum());
+    }
+
+    @Override
+    public MessageWrapper record(MessageWrapper messageWrapper) {
+        return this.topics.computeIfAbsent(messageWrapper.getTopic(), k -> new TopicHistory()).record(messageWrapper);
+    }
+
+    @Override
+    public List<MessageWrapper> snapshot(String topic) {
+        TopicHistory history = this.topics.get(topic);
+        return (history != null) ? history.snapshot() : Collections.emptyList();
+    }
+
+    private static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+
+        // raw documents are sized from their bytes, walking them would decode them
+        if (value instanceof LazyDocument) {
+            return 48 + 2L * ((LazyDocument) value).getRawDocument().getByteBuffer().remaining();
+        }
+
+        if (value instanceof Map) {
+            long size = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += 32 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        }
+
+        if (value instanceof Collection) {
+            long size = 24;
+            for (Object element : (Collection<?>) value) {
+                size += 8 + estimateSize(element);
+            }
+            return size;
+        }
+
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+
+        return 24;
+    }
+
+    private class TopicHistory {
+        private final Deque<MessageWrapper> messages = new ArrayDeque<>();
+        private final Deque<Long> sizes = new ArrayDeque<>();
+        private long sequence;
+        private long bytes;
+
+        private synchronized MessageWrapper record(MessageWrapper messageWrapper) {
+            MessageWrapper recorded = messageWrapper.toBuilder().withSequence(++this.sequence).build();
+
+            if (maxMessages <= 0) {
+                return recorded;
+            }
+
+            long size = 64 + estimateSize(recorded.getPayload()) + estimateSize(recorded.getUpdatedFields())
+                    + estimateSize(recorded.getRemovedFields());
+            this.messages.addLast(recorded);
+            this.sizes.addLast(size);
+            this.bytes += size;
+
+            while (this.messages.size() > maxMessages || (this.bytes > maxBytes && this.messages.size() > 1)) {
+                this.messages.removeFirst();
+                this.bytes -= this.sizes.removeFirst();
+            }
+
+            return recorded;
+        }
+
+        private synchronized List<MessageWrapper> snapshot() {
+            return new ArrayList<>(this.messages);
+        }
+
+        private synchronized long bytes() {
+            return this.bytes;
+        }
+    }
+}
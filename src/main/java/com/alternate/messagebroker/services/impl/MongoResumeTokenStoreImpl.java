@@ -0,0 +1,51 @@
+package com.alternate.messagebroker.services.impl;
+
+import com.alternate.messagebroker.services.ResumeTokenStore;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+@Service
+@Profile("!in-memory")
+public class MongoResumeTokenStoreImpl implements ResumeTokenStore {
+
+    private static final String TOKEN_FIELD = "token";
+
+    private final MongoCollection<BsonDocument> collection;
+
+    @Autowired
+    public MongoResumeTokenStoreImpl(MongoDatabase mongoDatabase,
+                                     @Value("${broker.change-stream.checkpoint-collection:_resume_tokens}") String collectionName) {
+        this.collection = mongoDatabase.getCollection(collectionName, BsonDocument.class);
+    }
+
+    @Override
+    public BsonDocument load(String streamId) {
+        BsonDocument checkpoint = this.collection.find(Filters.eq("_id", streamId)).first();
+        return (checkpoint != null && checkpoint.isDocument(TOKEN_FIELD)) ? checkpoint.getDocument(TOKEN_FIELD) : null;
+    }
+
+    @Override
+    public void save(String streamId, BsonDocument resumeToken) {
+        if (resumeToken == null) {
+            this.collection.deleteOne(Filters.eq("_id", streamId));
+            return;
+        }
+
+        BsonDocument checkpoint = new BsonDocument("_id", new BsonString(streamId))
+                .append(TOKEN_FIELD, resumeToken);
+        this.collection.replaceOne(Filters.eq("_id", streamId), checkpoint, new ReplaceOptions().upsert(true));
+    }
+
+    @Override
+    public String getCollectionName() {
+        return this.collection.getNamespace().getCollectionName();
+    }
+}
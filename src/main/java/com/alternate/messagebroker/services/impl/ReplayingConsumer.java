@@ -0,0 +1,141 @@
+package com.alternate.messagebroker.services.impl;
+
+import com.alternate.messagebroker.exceptions.ReplayOverflowException;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.models.ReplayFrom;
+import com.alternate.messagebroker.models.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Consumer of a subscription that starts with a replay. Live messages are held back until the replay has been
+ * delivered and are then released, skipping those the replay already contained: messages recorded in the
+ * history snapshot by their sequence, messages read back from mongo by their position. At most maxPending live
+ * messages are held back; one more fails the subscription, which then has to be made again.
+ */
+class ReplayingConsumer implements Consumer<MessageWrapper> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayingConsumer.class);
+
+    private final Consumer<MessageWrapper> downstream;
+    private final Consumer<Throwable> failure;
+    private final int maxPending;
+    private final List<MessageWrapper> pending = new ArrayList<>();
+    private boolean live;
+    private volatile boolean failed;
+
+    ReplayingConsumer(Consumer<MessageWrapper> downstream, Consumer<Throwable> failure, int maxPending) {
+        this.downstream = downstream;
+        this.failure = failure;
+        this.maxPending = maxPending;
+    }
+
+    @Override
+    public synchronized void accept(MessageWrapper messageWrapper) {
+        if (this.live) {
+            this.downstream.accept(messageWrapper);
+        } else if (this.failed) {
+            return;
+        } else if (this.pending.size() >= this.maxPending) {
+            this.failed = true;
+            this.pending.clear();
+            this.failure.accept(new ReplayOverflowException("more than " + this.maxPending + " messages arrived during the replay"));
+        } else {
+            this.pending.add(messageWrapper);
+        }
+    }
+
+    /**
+     * @param history  snapshot of the topic history taken after the subscription was registered
+     * @param fallback reads messages since the given point from mongo when the history does not reach back
+     *                 far enough, for as long as the predicate it is given returns true; may be null
+     */
+    void replay(Subscription subscription, ReplayFrom replayFrom, List<MessageWrapper> history,
+                BiConsumer<ReplayFrom, Predicate<MessageWrapper>> fallback) {
+        Set<String> replayedPositions = new HashSet<>();
+        long lastSequence = history.isEmpty() ? 0 : history.get(history.size() - 1).getSequence();
+
+        // a replay that fails still lets the live messages through
+        try {
+            int start = this.start(replayFrom, history);
+
+            if (start < 0) {
+                start = 0;
+
+                if (fallback != null) {
+                    fallback.accept(replayFrom, messageWrapper -> {
+                        if (messageWrapper.getPosition() != null) {
+                            replayedPositions.add(messageWrapper.getPosition());
+                        }
+                        if (subscription.accepts(messageWrapper)) {
+                            this.downstream.accept(messageWrapper);
+                        }
+                        return !this.failed;
+                    });
+                }
+            }
+
+            for (MessageWrapper messageWrapper : history.subList(start, history.size())) {
+                if (this.failed) {
+                    return;
+                }
+                if (!replayedPositions.contains(messageWrapper.getPosition()) && subscription.accepts(messageWrapper)) {
+                    this.downstream.accept(messageWrapper);
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("replay of topic: {} failed, delivering live messages only", subscription.getTopic(), e);
+        } finally {
+            this.goLive(lastSequence, replayedPositions);
+        }
+    }
+
+    private synchronized void goLive(long lastSequence, Set<String> replayedPositions) {
+        if (this.failed) {
+            return;
+        }
+
+        for (MessageWrapper messageWrapper : this.pending) {
+            if (messageWrapper.getSequence() > lastSequence && !replayedPositions.contains(messageWrapper.getPosition())) {
+                this.downstream.accept(messageWrapper);
+            }
+        }
+
+        this.pending.clear();
+        this.live = true;
+    }
+
+    // index of the first history message to replay, -1 when the history does not reach back far enough
+    private int start(ReplayFrom replayFrom, List<MessageWrapper> history) {
+        switch (replayFrom.getType()) {
+            case POSITION:
+                for (int i = history.size() - 1; i >= 0; i--) {
+                    if (replayFrom.getPosition().equals(history.get(i).getPosition())) {
+                        return i + 1;
+                    }
+                }
+                return -1;
+            case TIMESTAMP:
+                if (history.isEmpty() || history.get(0).getTimestamp() > replayFrom.getTimestamp()) {
+                    return -1;
+                }
+                for (int i = 0; i < history.size(); i++) {
+                    if (history.get(i).getTimestamp() >= replayFrom.getTimestamp()) {
+                        return i;
+                    }
+                }
+                return history.size();
+            case COUNT:
+            default:
+                return Math.max(0, history.size() - replayFrom.getCount());
+        }
+    }
+}
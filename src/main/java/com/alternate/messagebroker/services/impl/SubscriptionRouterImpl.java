@@ -0,0 +1,101 @@
+package com.alternate.messagebroker.services.impl;
+
+import com.alternate.common.util.PrefixTrie;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.models.Subscription;
+import com.alternate.messagebroker.services.SubscriptionRouter;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Subscriptions to a topic are kept in a map keyed by the topic, subscriptions to a topic pattern in a trie keyed
+ * by the pattern's prefix. Routing an event visits its topic's subscriptions and those of every pattern whose
+ * prefix the topic starts with, at a cost that grows with the topic's length rather than the number of patterns.
+ */
+@Service
+public class SubscriptionRouterImpl implements SubscriptionRouter {
+
+    private final Map<String, TopicIndex> topics = new ConcurrentHashMap<>();
+    private final PrefixTrie<TopicIndex> patterns = new PrefixTrie<>();
+    private final AtomicLong version = new AtomicLong();
+
+    @Override
+    public void addSubscription(Subscription subscription) {
+        BiFunction<String, TopicIndex, TopicIndex> add = (topic, topicIndex) -> {
+            TopicIndex index = (topicIndex != null) ? topicIndex : new TopicIndex();
+            index.add(subscription);
+            return index;
+        };
+
+        if (Subscription.isTopicPattern(subscription.getTopic())) {
+            this.patterns.compute(Subscription.getTopicPrefix(subscription.getTopic()), add);
+        } else {
+            this.topics.compute(subscription.getTopic(), add);
+        }
+        this.version.incrementAndGet();
+    }
+
+    @Override
+    public void removeSubscription(Subscription subscription) {
+        BiFunction<String, TopicIndex, TopicIndex> remove = (topic, topicIndex) -> {
+            if (topicIndex == null) {
+                return null;
+            }
+            topicIndex.remove(subscription);
+            return topicIndex.isEmpty() ? null : topicIndex;
+        };
+
+        if (Subscription.isTopicPattern(subscription.getTopic())) {
+            this.patterns.compute(Subscription.getTopicPrefix(subscription.getTopic()), remove);
+        } else {
+            this.topics.computeIfPresent(subscription.getTopic(), remove);
+        }
+        this.version.incrementAndGet();
+    }
+
+    @Override
+    public void route(MessageWrapper messageWrapper) {
+        TopicIndex topicIndex = this.topics.get(messageWrapper.getTopic());
+
+        if (topicIndex != null) {
+            topicIndex.route(messageWrapper);
+        }
+
+        if (!this.patterns.isEmpty()) {
+            this.patterns.forEachPrefixOf(messageWrapper.getTopic(), index -> index.route(messageWrapper));
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    @Override
+    public Map<String, List<Map<String, Object>>> getTopicFilters() {
+        Map<String, List<Map<String, Object>>> topicFilters = new HashMap<>();
+        this.topics.forEach((topic, topicIndex) -> topicFilters.put(topic, topicIndex.getFilters()));
+        this.patterns.forEach((prefix, topicIndex) -> topicFilters.put(prefix + Subscription.WILDCARD, topicIndex.getFilters()));
+        return topicFilters;
+    }
+
+    @Override
+    public Set<String> getDeltaOnlyTopics() {
+        Set<String> deltaOnlyTopics = new HashSet<>();
+        this.topics.forEach((topic, topicIndex) -> {
+            // a topic that a pattern also covers is watched with the patterns, so that no event is seen twice
+            if (!topicIndex.requiresFullDocument() && !this.patterns.hasPrefixOf(topic)) {
+                deltaOnlyTopics.add(topic);
+            }
+        });
+        return deltaOnlyTopics;
+    }
+}
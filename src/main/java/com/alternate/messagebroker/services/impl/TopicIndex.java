@@ -0,0 +1,166 @@
+package com.alternate.messagebroker.services.impl;
+
+import com.alternate.messagebroker.models.DeliveryMode;
+import com.alternate.messagebroker.models.FilterExpression;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.models.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Subscribers of a single topic. Unfiltered subscribers receive every message. Filtered subscribers whose filter
+ * requires a top-level field to equal a string or boolean are indexed by that (field, value) pair, so that routing a
+ * message only visits the subscribers whose indexed value equals the message's value for that field. The remaining
+ * filtered subscribers are evaluated for every message. Messages without a full document only reach unfiltered
+ * delta subscribers.
+ */
+class TopicIndex {
+
+    private final Set<Subscription> unfiltered = ConcurrentHashMap.newKeySet();
+    private final Set<Subscription> scanned = ConcurrentHashMap.newKeySet();
+    private final Map<String, Map<Object, Set<Subscription>>> equalityIndex = new ConcurrentHashMap<>();
+    private final AtomicInteger fullDocumentSubscriptions = new AtomicInteger();
+
+    void add(Subscription subscription) {
+        Map<String, Object> filter = subscription.getFilter();
+
+        if (subscription.requiresFullDocument()) {
+            this.fullDocumentSubscriptions.incrementAndGet();
+        }
+
+        if (filter.isEmpty()) {
+            this.unfiltered.add(subscription);
+            return;
+        }
+
+        FilterExpression.Equality equality = subscription.getExpression().getIndexableEquality();
+
+        if (equality == null) {
+            this.scanned.add(subscription);
+            return;
+        }
+
+        this.equalityIndex
+                .computeIfAbsent(equality.getField(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(equality.getValue(), k -> ConcurrentHashMap.newKeySet())
+                .add(subscription);
+    }
+
+    void remove(Subscription subscription) {
+        Map<String, Object> filter = subscription.getFilter();
+
+        if (subscription.requiresFullDocument()) {
+            this.fullDocumentSubscriptions.decrementAndGet();
+        }
+
+        if (filter.isEmpty()) {
+            this.unfiltered.remove(subscription);
+            return;
+        }
+
+        FilterExpression.Equality equality = subscription.getExpression().getIndexableEquality();
+
+        if (equality == null) {
+            this.scanned.remove(subscription);
+            return;
+        }
+
+        Map<Object, Set<Subscription>> valueIndex = this.equalityIndex.get(equality.getField());
+
+        if (valueIndex == null) {
+            return;
+        }
+
+        Set<Subscription> subscriptions = valueIndex.get(equality.getValue());
+
+        if (subscriptions == null) {
+            return;
+        }
+
+        subscriptions.remove(subscription);
+
+        if (subscriptions.isEmpty()) {
+            valueIndex.remove(equality.getValue());
+        }
+
+        if (valueIndex.isEmpty()) {
+            this.equalityIndex.remove(equality.getField());
+        }
+    }
+
+    boolean isEmpty() {
+        return this.unfiltered.isEmpty() && this.scanned.isEmpty() && this.equalityIndex.isEmpty();
+    }
+
+    boolean requiresFullDocument() {
+        return this.fullDocumentSubscriptions.get() > 0;
+    }
+
+    List<Map<String, Object>> getFilters() {
+        if (!this.unfiltered.isEmpty()) {
+            return Collections.singletonList(Collections.emptyMap());
+        }
+
+        Set<Map<String, Object>> filters = new LinkedHashSet<>();
+        this.equalityIndex.values().forEach(valueIndex -> valueIndex.values()
+                .forEach(subscriptions -> subscriptions.forEach(subscription -> filters.add(subscription.getFilter()))));
+        this.scanned.forEach(subscription -> filters.add(subscription.getFilter()));
+        return new ArrayList<>(filters);
+    }
+
+    void route(MessageWrapper messageWrapper) {
+        Map<String, Object> payload = messageWrapper.getPayload();
+
+        for (Subscription subscription : this.unfiltered) {
+            if (payload != null || subscription.getDeliveryMode() == DeliveryMode.DELTA) {
+                subscription.getConsumer().accept(messageWrapper);
+            }
+        }
+
+        if (payload == null) {
+            return;
+        }
+
+        for (Subscription subscription : this.scanned) {
+            if (subscription.matches(payload)) {
+                subscription.getConsumer().accept(messageWrapper);
+            }
+        }
+
+        for (Map.Entry<String, Map<Object, Set<Subscription>>> entry : this.equalityIndex.entrySet()) {
+            Object value = payload.get(entry.getKey());
+
+            // rule out the common string value with a class check before the slower interface check
+            if (!(value instanceof String) && value instanceof List) {
+                List<?> values = (List<?>) value;
+                for (int i = 0; i < values.size(); i++) {
+                    // an equality matches any element of an array, visit each distinct element once
+                    if (values.indexOf(values.get(i)) == i) {
+                        route(entry.getValue().get(values.get(i)), payload, messageWrapper);
+                    }
+                }
+            } else if (value != null) {
+                route(entry.getValue().get(value), payload, messageWrapper);
+            }
+        }
+    }
+
+    private static void route(Set<Subscription> candidates, Map<String, Object> payload, MessageWrapper messageWrapper) {
+        if (candidates == null) {
+            return;
+        }
+
+        for (Subscription subscription : candidates) {
+            if (subscription.matches(payload)) {
+                subscription.getConsumer().accept(messageWrapper);
+            }
+        }
+    }
+}
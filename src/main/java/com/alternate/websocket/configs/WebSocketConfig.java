@@ -1,27 +1,44 @@
 package com.alternate.websocket.configs;
 
+import com.alternate.websocket.models.WireFormat;
+import com.alternate.websocket.services.FrameCompressor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
 
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
     private final WebSocketHandler webSocketHandler;
+    private final FrameCompressor frameCompressor;
 
     @Autowired
-    public WebSocketConfig(WebSocketHandler webSocketHandler) {
+    public WebSocketConfig(WebSocketHandler webSocketHandler, FrameCompressor frameCompressor) {
         this.webSocketHandler = webSocketHandler;
+        this.frameCompressor = frameCompressor;
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry webSocketHandlerRegistry) {
+        DefaultHandshakeHandler handshakeHandler = new DefaultHandshakeHandler();
+        handshakeHandler.setSupportedProtocols(Arrays.stream(WireFormat.values())
+                .map(WireFormat::getSubProtocol)
+                .flatMap(subProtocol -> this.frameCompressor.isEnabled()
+                        ? Stream.of(subProtocol, subProtocol + this.frameCompressor.getSubProtocolSuffix())
+                        : Stream.of(subProtocol))
+                .toArray(String[]::new));
+
         webSocketHandlerRegistry
                 .addHandler(this.webSocketHandler, "/ws")
+                .setHandshakeHandler(handshakeHandler)
                 .setAllowedOrigins("*");
     }
 }
@@ -0,0 +1,6 @@
+package com.alternate.websocket.models;
+
+public enum GroupBalancing {
+    LEAST_LOADED,
+    HASH
+}
@@ -0,0 +1,27 @@
+package com.alternate.websocket.models;
+
+import com.alternate.messagebroker.models.MessageWrapper;
+
+public class GroupDelivery {
+    private final MessageWrapper messageWrapper;
+    private final long deliveryTag;
+    private final boolean redelivered;
+
+    public GroupDelivery(MessageWrapper messageWrapper, long deliveryTag, boolean redelivered) {
+        this.messageWrapper = messageWrapper;
+        this.deliveryTag = deliveryTag;
+        this.redelivered = redelivered;
+    }
+
+    public MessageWrapper getMessageWrapper() {
+        return messageWrapper;
+    }
+
+    public long getDeliveryTag() {
+        return deliveryTag;
+    }
+
+    public boolean isRedelivered() {
+        return redelivered;
+    }
+}
@@ -0,0 +1,115 @@
+package com.alternate.websocket.models;
+
+import com.alternate.messagebroker.models.DeliveryMode;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+public class GroupSubscription {
+    private final String topic;
+    private final String group;
+    private final Map<String, Object> filter;
+    private final DeliveryMode deliveryMode;
+    private final GroupBalancing balancing;
+    private final String key;
+    private final int prefetch;
+
+    private GroupSubscription(GroupSubscriptionBuilder builder) {
+        this.topic = builder.topic;
+        this.group = builder.group;
+        this.filter = builder.filter != null ? builder.filter : Collections.emptyMap();
+        this.deliveryMode = builder.deliveryMode != null ? builder.deliveryMode : DeliveryMode.FULL;
+        this.balancing = builder.balancing != null ? builder.balancing : GroupBalancing.LEAST_LOADED;
+        this.key = builder.key != null ? builder.key : "_id";
+        this.prefetch = builder.prefetch;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public Map<String, Object> getFilter() {
+        return filter;
+    }
+
+    public DeliveryMode getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    public GroupBalancing getBalancing() {
+        return balancing;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    // members share one subscription of the group, so everything but the prefetch has to agree
+    public boolean isCompatible(GroupSubscription other) {
+        return this.topic.equals(other.topic) && this.group.equals(other.group) && this.filter.equals(other.filter)
+                && this.deliveryMode == other.deliveryMode && this.balancing == other.balancing
+                && Objects.equals(this.key, other.key);
+    }
+
+    public static GroupSubscriptionBuilder builder() {
+        return new GroupSubscriptionBuilder();
+    }
+
+    public static class GroupSubscriptionBuilder {
+        private String topic;
+        private String group;
+        private Map<String, Object> filter;
+        private DeliveryMode deliveryMode;
+        private GroupBalancing balancing;
+        private String key;
+        private int prefetch;
+
+        public GroupSubscriptionBuilder withTopic(String topic) {
+            this.topic = topic;
+            return this;
+        }
+
+        public GroupSubscriptionBuilder withGroup(String group) {
+            this.group = group;
+            return this;
+        }
+
+        public GroupSubscriptionBuilder withFilter(Map<String, Object> filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        public GroupSubscriptionBuilder withDeliveryMode(DeliveryMode deliveryMode) {
+            this.deliveryMode = deliveryMode;
+            return this;
+        }
+
+        public GroupSubscriptionBuilder withBalancing(GroupBalancing balancing) {
+            this.balancing = balancing;
+            return this;
+        }
+
+        public GroupSubscriptionBuilder withKey(String key) {
+            this.key = key;
+            return this;
+        }
+
+        public GroupSubscriptionBuilder withPrefetch(int prefetch) {
+            this.prefetch = prefetch;
+            return this;
+        }
+
+        public GroupSubscription build() {
+            return new GroupSubscription(this);
+        }
+    }
+}
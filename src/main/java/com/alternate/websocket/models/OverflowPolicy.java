@@ -0,0 +1,9 @@
+package com.alternate.websocket.models;
+
+public enum OverflowPolicy {
+    BLOCK,
+    DROP_OLDEST,
+    DROP_NEWEST,
+    CONFLATE,
+    DISCONNECT
+}
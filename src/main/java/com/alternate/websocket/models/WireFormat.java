@@ -0,0 +1,30 @@
+package com.alternate.websocket.models;
+
+public enum WireFormat {
+    JSON("json"),
+    BSON("bson"),
+    CBOR("cbor");
+
+    private final String subProtocol;
+
+    WireFormat(String subProtocol) {
+        this.subProtocol = subProtocol;
+    }
+
+    public String getSubProtocol() {
+        return subProtocol;
+    }
+
+    // extensions such as "json+deflate" share the format of their base subprotocol
+    public static WireFormat fromSubProtocol(String subProtocol) {
+        int extension = (subProtocol != null) ? subProtocol.indexOf('+') : -1;
+        String baseSubProtocol = (extension > 0) ? subProtocol.substring(0, extension) : subProtocol;
+
+        for (WireFormat wireFormat : values()) {
+            if (wireFormat.subProtocol.equalsIgnoreCase(baseSubProtocol)) {
+                return wireFormat;
+            }
+        }
+        return JSON;
+    }
+}
@@ -1,10 +1,27 @@
 package com.alternate.websocket.services;
 
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.websocket.models.GroupDelivery;
+import com.alternate.websocket.models.GroupSubscription;
 import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public interface ConsumerSessionHandler {
     void subscribeTopic(String id, String topic, Disposable disposable);
 
+    /**
+     * Adds the session to a consumer group, the group subscribes to its topic through source when it is created.
+     *
+     * @throws IllegalArgumentException if the group's members subscribed with a different filter, delivery mode,
+     *                                  balancing or key
+     */
+    void joinGroup(String id, GroupSubscription groupSubscription, Consumer<GroupDelivery> consumer, Supplier<Flux<MessageWrapper>> source);
+
+    boolean acknowledge(String id, String topic, String group, long deliveryTag, boolean multiple);
+
     void unsubscribeTopic(String id, String topic);
 
     void unsubscribeAllTopics(String id);
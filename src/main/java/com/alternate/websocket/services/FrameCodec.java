@@ -0,0 +1,24 @@
+package com.alternate.websocket.services;
+
+import com.alternate.websocket.models.Message;
+import com.alternate.websocket.models.MessageType;
+import com.alternate.websocket.models.WireFormat;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public interface FrameCodec {
+    WireFormat getWireFormat();
+
+    Object encodeContent(Map<String, Object> content);
+
+    Object encodeBatchContent(List<WebSocketMessage<?>> messages);
+
+    Object encodeFrame(MessageType type, Map<String, String> headers, Object encodedContent);
+
+    WebSocketMessage<?> toWebSocketMessage(Object frame);
+
+    Message decode(WebSocketMessage<?> message) throws IOException;
+}
@@ -0,0 +1,17 @@
+package com.alternate.websocket.services;
+
+import org.springframework.web.socket.WebSocketMessage;
+
+public interface FrameCompressor {
+    boolean isEnabled();
+
+    String getSubProtocolSuffix();
+
+    boolean isNegotiated(String acceptedProtocol);
+
+    int getThreshold();
+
+    String getDictionary();
+
+    WebSocketMessage<?> compress(WebSocketMessage<?> message);
+}
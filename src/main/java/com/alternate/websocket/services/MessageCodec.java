@@ -0,0 +1,21 @@
+package com.alternate.websocket.services;
+
+import com.alternate.messagebroker.models.DeliveryMode;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.websocket.models.Message;
+import com.alternate.websocket.models.WireFormat;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public interface MessageCodec {
+    WebSocketMessage<?> encode(Message message, WireFormat wireFormat);
+
+    WebSocketMessage<?> encode(MessageWrapper messageWrapper, DeliveryMode deliveryMode, Map<String, String> headers, WireFormat wireFormat);
+
+    WebSocketMessage<?> encodeBatch(List<WebSocketMessage<?>> messages, WireFormat wireFormat);
+
+    Message decode(WebSocketMessage<?> message, WireFormat wireFormat) throws IOException;
+}
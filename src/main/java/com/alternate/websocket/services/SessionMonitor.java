@@ -0,0 +1,13 @@
+package com.alternate.websocket.services;
+
+import org.springframework.web.socket.WebSocketSession;
+
+public interface SessionMonitor {
+    void register(WebSocketSession session);
+
+    void recordActivity(String id);
+
+    void recordHeartBeat(String id);
+
+    void unregister(String id);
+}
@@ -0,0 +1,29 @@
+package com.alternate.websocket.services;
+
+import com.alternate.websocket.models.OverflowPolicy;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+public interface SessionSender {
+    void openSession(WebSocketSession session);
+
+    void closeSession(String id);
+
+    void configureBatching(String id, int maxBatchSize, long lingerMillis);
+
+    /**
+     * @param compressedMessage supplies the message compressed for sessions that negotiated compression, so that a
+     *                          frame shared by many sessions is compressed once; null compresses it per session
+     */
+    void send(String id, WebSocketMessage<?> message, Supplier<WebSocketMessage<?>> compressedMessage,
+              OverflowPolicy overflowPolicy, String conflationKey, boolean batchable);
+
+    int getQueueDepth(String id);
+
+    long getBufferedBytes(String id);
+
+    Map<String, Integer> getQueueDepths();
+}
@@ -0,0 +1,164 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.messagebroker.models.LazyDocument;
+import com.alternate.websocket.models.Message;
+import com.alternate.websocket.models.MessageType;
+import com.alternate.websocket.models.WireFormat;
+import com.alternate.websocket.services.FrameCodec;
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonArray;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonType;
+import org.bson.ByteBuf;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class BsonFrameCodecImpl implements FrameCodec {
+
+    private static final CodecRegistry CODEC_REGISTRY = MongoClientSettings.getDefaultCodecRegistry();
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec(CODEC_REGISTRY);
+    private static final BsonDocumentCodec BSON_DOCUMENT_CODEC = new BsonDocumentCodec(CODEC_REGISTRY);
+    private static final byte[] ID_ELEMENT_NAME = "_id\0".getBytes(StandardCharsets.UTF_8);
+
+    @Override
+    public WireFormat getWireFormat() {
+        return WireFormat.BSON;
+    }
+
+    @Override
+    public Object encodeContent(Map<String, Object> content) {
+        if (content instanceof LazyDocument) {
+            return this.encodeRawContent((LazyDocument) content);
+        }
+
+        Document document = (content instanceof Document) ? (Document) content : new Document(content);
+        return new RawBsonDocument(document, DOCUMENT_CODEC);
+    }
+
+    @Override
+    public Object encodeBatchContent(List<WebSocketMessage<?>> messages) {
+        BsonArray frames = new BsonArray();
+        messages.forEach(message -> frames.add(new RawBsonDocument(this.toByteArray((BinaryMessage) message))));
+        return new RawBsonDocument(new BsonDocument("messages", frames), BSON_DOCUMENT_CODEC);
+    }
+
+    @Override
+    public Object encodeFrame(MessageType type, Map<String, String> headers, Object encodedContent) {
+        BsonDocument frame = new BsonDocument("type", new BsonString(type.name()));
+
+        if (headers != null) {
+            BsonDocument headersDocument = new BsonDocument();
+            headers.forEach((key, value) -> headersDocument.append(key, new BsonString(value)));
+            frame.append("headers", headersDocument);
+        }
+
+        if (encodedContent != null) {
+            frame.append("content", (RawBsonDocument) encodedContent);
+        }
+
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        BSON_DOCUMENT_CODEC.encode(new BsonBinaryWriter(buffer), frame, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public WebSocketMessage<?> toWebSocketMessage(Object frame) {
+        return new BinaryMessage((byte[]) frame);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Message decode(WebSocketMessage<?> message) throws IOException {
+        byte[] bytes = this.toByteArray((BinaryMessage) message);
+
+        Document document = new RawBsonDocument(bytes).decode(DOCUMENT_CODEC);
+        Map<String, String> headers = null;
+
+        if (document.get("headers") instanceof Map) {
+            headers = new HashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) document.get("headers")).entrySet()) {
+                headers.put(entry.getKey(), entry.getValue() != null ? entry.getValue().toString() : null);
+            }
+        }
+
+        try {
+            return Message.builder()
+                    .withType(MessageType.valueOf(document.getString("type")))
+                    .withHeaders(headers)
+                    .withContent((Map<String, Object>) document.get("content"))
+                    .build();
+        } catch (RuntimeException e) {
+            throw new IOException("invalid bson frame", e);
+        }
+    }
+
+    // the elements of a raw document are copied as bytes, only its _id element is replaced by the id string
+    private RawBsonDocument encodeRawContent(LazyDocument content) {
+        ByteBuf raw = content.getRawDocument().getByteBuffer();
+        byte[] source = new byte[raw.remaining()];
+        raw.get(source);
+
+        int idStart = 4;
+        int idEnd = 4;
+
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(source))) {
+            reader.readStartDocument();
+            int start = reader.getBsonInput().getPosition();
+
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String name = reader.readName();
+                reader.skipValue();
+
+                if ("_id".equals(name)) {
+                    idStart = start;
+                    idEnd = reader.getBsonInput().getPosition();
+                    break;
+                }
+                start = reader.getBsonInput().getPosition();
+            }
+        }
+
+        byte[] id = content.getId().getBytes(StandardCharsets.UTF_8);
+        int length = source.length - (idEnd - idStart) + ID_ELEMENT_NAME.length + 4 + id.length + 2;
+
+        ByteBuffer target = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        target.putInt(length)
+                .put((byte) BsonType.STRING.getValue())
+                .put(ID_ELEMENT_NAME)
+                .putInt(id.length + 1)
+                .put(id)
+                .put((byte) 0)
+                .put(source, 4, idStart - 4)
+                .put(source, idEnd, source.length - idEnd);
+
+        return new RawBsonDocument(target.array());
+    }
+
+    private byte[] toByteArray(BinaryMessage message) {
+        ByteBuffer payload = message.getPayload().duplicate();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,120 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.websocket.models.Message;
+import com.alternate.websocket.models.MessageType;
+import com.alternate.websocket.models.WireFormat;
+import com.alternate.websocket.services.FrameCodec;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class CborFrameCodecImpl implements FrameCodec {
+
+    private static final int BREAK = 0xFF;
+
+    private final ObjectMapper objectMapper = new ObjectMapper(new CBORFactory());
+
+    @Override
+    public WireFormat getWireFormat() {
+        return WireFormat.CBOR;
+    }
+
+    @Override
+    public Object encodeContent(Map<String, Object> content) {
+        try {
+            return this.objectMapper.writeValueAsBytes(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // {"messages": [...]} as an indefinite-length map and array with the already encoded frames spliced in
+    @Override
+    public Object encodeBatchContent(List<WebSocketMessage<?>> messages) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            JsonGenerator generator = this.objectMapper.getFactory().createGenerator(out);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartObject();
+            generator.writeFieldName("messages");
+            generator.writeStartArray();
+            generator.flush();
+
+            for (WebSocketMessage<?> message : messages) {
+                out.write(this.toByteArray((BinaryMessage) message));
+            }
+
+            out.write(BREAK);
+            out.write(BREAK);
+            generator.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return out.toByteArray();
+    }
+
+    // the frame is an indefinite-length map whose content value is the already encoded payload spliced in as is
+    @Override
+    public Object encodeFrame(MessageType type, Map<String, String> headers, Object encodedContent) {
+        byte[] content = (byte[]) encodedContent;
+        ByteArrayOutputStream out = new ByteArrayOutputStream((content != null ? content.length : 0) + 64);
+
+        try {
+            JsonGenerator generator = this.objectMapper.getFactory().createGenerator(out);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartObject();
+            generator.writeStringField("type", type.name());
+
+            if (headers != null) {
+                generator.writeObjectField("headers", headers);
+            }
+
+            if (content != null) {
+                generator.writeFieldName("content");
+            }
+
+            generator.flush();
+
+            if (content != null) {
+                out.write(content);
+            }
+
+            out.write(BREAK);
+            generator.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return out.toByteArray();
+    }
+
+    @Override
+    public WebSocketMessage<?> toWebSocketMessage(Object frame) {
+        return new BinaryMessage((byte[]) frame);
+    }
+
+    @Override
+    public Message decode(WebSocketMessage<?> message) throws IOException {
+        return this.objectMapper.readValue(this.toByteArray((BinaryMessage) message), Message.class);
+    }
+
+    private byte[] toByteArray(BinaryMessage message) {
+        ByteBuffer payload = message.getPayload().duplicate();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return bytes;
+    }
+}
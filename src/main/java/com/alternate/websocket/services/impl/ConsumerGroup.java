@@ -0,0 +1,344 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.websocket.models.GroupBalancing;
+import com.alternate.websocket.models.GroupDelivery;
+import com.alternate.websocket.models.GroupSubscription;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Members sharing one subscription, each message goes to one of them. LEAST_LOADED picks the member with the
+ * fewest unacknowledged messages, HASH picks the member that owns the message's key on a consistent hash ring so
+ * that messages with the same key keep their order. A member holds at most its prefetch of unacknowledged
+ * messages; messages no member can take wait in a bounded backlog. The unacknowledged messages of a member that
+ * leaves are delivered again to the others. Members are picked under the group's monitor but handed their messages
+ * outside it, one member at a time in order, so a slow member does not hold up the others. A group only spans the
+ * sessions of one node: members connected to different nodes are separate groups and each gets every message.
+ */
+class ConsumerGroup {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConsumerGroup.class);
+
+    private static final int VIRTUAL_NODES = 64;
+
+    private final GroupSubscription groupSubscription;
+    private final int backlogCapacity;
+    private final Counter droppedCounter;
+    private final Counter redeliveredCounter;
+    private final List<Member> members = new ArrayList<>();
+    private final TreeMap<Integer, Member> ring = new TreeMap<>();
+    private final Deque<Pending> backlog = new ArrayDeque<>();
+    private long nextDeliveryTag;
+    private int nextMember;
+    private Disposable upstream;
+    private boolean closed;
+
+    ConsumerGroup(GroupSubscription groupSubscription, int backlogCapacity, Counter droppedCounter, Counter redeliveredCounter) {
+        this.groupSubscription = groupSubscription;
+        this.backlogCapacity = backlogCapacity;
+        this.droppedCounter = droppedCounter;
+        this.redeliveredCounter = redeliveredCounter;
+    }
+
+    synchronized boolean isCompatible(GroupSubscription other) {
+        return this.groupSubscription.isCompatible(other);
+    }
+
+    // a member may change the settings of a group it is the only member of
+    synchronized boolean accepts(String sessionId, GroupSubscription other) {
+        return this.groupSubscription.isCompatible(other)
+                || this.members.isEmpty()
+                || (this.members.size() == 1 && this.members.get(0).sessionId.equals(sessionId));
+    }
+
+    // only adds the member, the backlog it can take is handed to it by deliverBacklog
+    synchronized void join(String sessionId, int prefetch, Consumer<GroupDelivery> consumer) {
+        Member member = new Member(sessionId, prefetch, consumer);
+        this.members.add(member);
+
+        for (int i = 0; i < VIRTUAL_NODES; i++) {
+            this.ring.put(hash(sessionId + "#" + i), member);
+        }
+    }
+
+    void deliverBacklog() {
+        List<Member> ready;
+
+        synchronized (this) {
+            ready = this.drainBacklog();
+        }
+
+        this.send(ready);
+    }
+
+    // subscribes the group once it has its first member, a group whose members all left before is not subscribed
+    synchronized void connect(Supplier<Flux<MessageWrapper>> source) {
+        if (this.upstream == null && !this.closed) {
+            this.upstream = source.get().subscribe(this::dispatch);
+        }
+    }
+
+    /**
+     * @return true if the group has no members left, its subscription is then disposed
+     */
+    boolean leave(String sessionId) {
+        List<Member> ready;
+
+        synchronized (this) {
+            Member member = this.findMember(sessionId);
+
+            if (member == null) {
+                return this.members.isEmpty();
+            }
+
+            this.members.remove(member);
+            this.ring.values().removeIf(m -> m == member);
+            // deliveries not handed over yet are among the unacknowledged ones
+            member.outbox.clear();
+
+            if (this.members.isEmpty()) {
+                this.closed = true;
+                if (this.upstream != null) {
+                    this.upstream.dispose();
+                }
+                this.backlog.clear();
+                return true;
+            }
+
+            List<MessageWrapper> unacknowledged = new ArrayList<>(member.unacknowledged.values());
+            for (int i = unacknowledged.size() - 1; i >= 0; i--) {
+                this.backlog.addFirst(new Pending(unacknowledged.get(i), true));
+            }
+            this.redeliveredCounter.increment(unacknowledged.size());
+
+            ready = this.drainBacklog();
+        }
+
+        this.send(ready);
+        return false;
+    }
+
+    void dispatch(MessageWrapper messageWrapper) {
+        List<Member> ready;
+
+        synchronized (this) {
+            this.backlog.addLast(new Pending(messageWrapper, false));
+
+            if (this.backlog.size() > this.backlogCapacity) {
+                this.backlog.removeFirst();
+                this.droppedCounter.increment();
+            }
+
+            ready = this.drainBacklog();
+        }
+
+        this.send(ready);
+    }
+
+    boolean acknowledge(String sessionId, long deliveryTag, boolean multiple) {
+        List<Member> ready;
+        boolean acknowledged;
+
+        synchronized (this) {
+            Member member = this.findMember(sessionId);
+
+            if (member == null) {
+                return false;
+            }
+
+            if (multiple) {
+                acknowledged = member.unacknowledged.keySet().removeIf(tag -> tag <= deliveryTag);
+            } else {
+                acknowledged = member.unacknowledged.remove(deliveryTag) != null;
+            }
+
+            ready = this.drainBacklog();
+        }
+
+        this.send(ready);
+        return acknowledged;
+    }
+
+    synchronized int getBacklogSize() {
+        return this.backlog.size();
+    }
+
+    /**
+     * @return the members that were handed deliveries and that no other thread is sending to
+     */
+    private List<Member> drainBacklog() {
+        List<Member> ready = new ArrayList<>();
+
+        if (this.members.isEmpty()) {
+            return ready;
+        }
+
+        // a member that had to skip a message takes no later one, so each member still sees its keys in order
+        Set<Member> skipped = (this.groupSubscription.getBalancing() == GroupBalancing.HASH) ? new HashSet<>() : null;
+        Iterator<Pending> iterator = this.backlog.iterator();
+
+        while (iterator.hasNext()) {
+            Pending pending = iterator.next();
+            Member member;
+
+            if (skipped == null) {
+                member = this.leastLoaded();
+                if (member == null) {
+                    return ready;
+                }
+            } else {
+                member = this.owner(pending.messageWrapper);
+                if (member.isFull() || skipped.contains(member)) {
+                    skipped.add(member);
+                    if (skipped.size() == this.members.size()) {
+                        return ready;
+                    }
+                    continue;
+                }
+            }
+
+            iterator.remove();
+            this.deliver(member, pending, ready);
+        }
+
+        return ready;
+    }
+
+    private void deliver(Member member, Pending pending, List<Member> ready) {
+        long deliveryTag = ++this.nextDeliveryTag;
+        member.unacknowledged.put(deliveryTag, pending.messageWrapper);
+        member.outbox.addLast(new GroupDelivery(pending.messageWrapper, deliveryTag, pending.redelivered));
+
+        if (!member.sending) {
+            member.sending = true;
+            ready.add(member);
+        }
+    }
+
+    // called without the monitor held, the thread that claimed a member hands it its deliveries until none are left
+    private void send(List<Member> ready) {
+        for (Member member : ready) {
+            while (true) {
+                GroupDelivery delivery;
+
+                synchronized (this) {
+                    delivery = member.outbox.pollFirst();
+                    if (delivery == null) {
+                        member.sending = false;
+                        break;
+                    }
+                }
+
+                try {
+                    member.consumer.accept(delivery);
+                } catch (RuntimeException e) {
+                    LOGGER.error("failed to deliver message: {} to group member: {}", delivery.getMessageWrapper().getId(), member.sessionId, e);
+                }
+            }
+        }
+    }
+
+    private Member leastLoaded() {
+        Member best = null;
+        int bestIndex = 0;
+
+        for (int i = 0; i < this.members.size(); i++) {
+            int index = (this.nextMember + i) % this.members.size();
+            Member member = this.members.get(index);
+
+            if (!member.isFull() && (best == null || member.unacknowledged.size() < best.unacknowledged.size())) {
+                best = member;
+                bestIndex = index;
+            }
+        }
+
+        this.nextMember = bestIndex + 1;
+        return best;
+    }
+
+    private Member owner(MessageWrapper messageWrapper) {
+        Map.Entry<Integer, Member> entry = this.ring.ceilingEntry(hash(this.key(messageWrapper)));
+        return (entry != null) ? entry.getValue() : this.ring.firstEntry().getValue();
+    }
+
+    private String key(MessageWrapper messageWrapper) {
+        String key = this.groupSubscription.getKey();
+        Object value = messageWrapper.getPayload();
+
+        if ("_id".equals(key) || value == null) {
+            return messageWrapper.getId();
+        }
+
+        for (String segment : key.split("\\.")) {
+            value = (value instanceof Map) ? ((Map<?, ?>) value).get(segment) : null;
+        }
+
+        return (value != null) ? value.toString() : messageWrapper.getId();
+    }
+
+    private Member findMember(String sessionId) {
+        for (Member member : this.members) {
+            if (member.sessionId.equals(sessionId)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    // murmur3 finalizer, spreads the string hash over the ring
+    private static int hash(String value) {
+        int h = value.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static class Member {
+        private final String sessionId;
+        private final int prefetch;
+        private final Consumer<GroupDelivery> consumer;
+        private final Map<Long, MessageWrapper> unacknowledged = new LinkedHashMap<>();
+        private final Deque<GroupDelivery> outbox = new ArrayDeque<>();
+        private boolean sending;
+
+        private Member(String sessionId, int prefetch, Consumer<GroupDelivery> consumer) {
+            this.sessionId = sessionId;
+            this.prefetch = prefetch;
+            this.consumer = consumer;
+        }
+
+        private boolean isFull() {
+            return this.unacknowledged.size() >= this.prefetch;
+        }
+    }
+
+    private static class Pending {
+        private final MessageWrapper messageWrapper;
+        private final boolean redelivered;
+
+        private Pending(MessageWrapper messageWrapper, boolean redelivered) {
+            this.messageWrapper = messageWrapper;
+            this.redelivered = redelivered;
+        }
+    }
+}
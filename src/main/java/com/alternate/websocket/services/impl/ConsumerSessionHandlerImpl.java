@@ -1,13 +1,25 @@
 package com.alternate.websocket.services.impl;
 
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.websocket.models.GroupDelivery;
+import com.alternate.websocket.models.GroupSubscription;
 import com.alternate.websocket.services.ConsumerSessionHandler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Service
 public class ConsumerSessionHandlerImpl implements ConsumerSessionHandler {
@@ -15,6 +27,30 @@ public class ConsumerSessionHandlerImpl implements ConsumerSessionHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConsumerSessionHandlerImpl.class);
 
     private Map<String, Map<String, Disposable>> consumers = new ConcurrentHashMap<>();
+    private Map<List<String>, ConsumerGroup> groups = new ConcurrentHashMap<>();
+
+    private final int groupBacklogCapacity;
+    private final Counter groupDroppedCounter;
+    private final Counter groupRedeliveredCounter;
+
+    @Autowired
+    public ConsumerSessionHandlerImpl(MeterRegistry meterRegistry,
+                                      @Value("${websocket.groups.backlog-capacity:10000}") int groupBacklogCapacity) {
+        this.groupBacklogCapacity = groupBacklogCapacity;
+
+        meterRegistry.gauge("websocket.subscribers", this.consumers, Map::size);
+        meterRegistry.gauge("websocket.subscriptions", this.consumers,
+                consumers -> consumers.values().stream().mapToInt(Map::size).sum());
+        meterRegistry.gauge("websocket.groups", this.groups, Map::size);
+        meterRegistry.gauge("websocket.groups.backlog", this.groups,
+                groups -> groups.values().stream().mapToInt(ConsumerGroup::getBacklogSize).sum());
+        this.groupDroppedCounter = Counter.builder("websocket.groups.dropped")
+                .description("messages dropped from full consumer group backlogs")
+                .register(meterRegistry);
+        this.groupRedeliveredCounter = Counter.builder("websocket.groups.redelivered")
+                .description("unacknowledged messages handed to other members after a member left")
+                .register(meterRegistry);
+    }
 
     @Override
     public void subscribeTopic(String id, String topic, Disposable disposable) {
@@ -25,6 +61,45 @@ public class ConsumerSessionHandlerImpl implements ConsumerSessionHandler {
         LOGGER.info("client: {} session saved for: {}", id, topic);
     }
 
+    @Override
+    public void joinGroup(String id, GroupSubscription groupSubscription, Consumer<GroupDelivery> consumer,
+                          Supplier<Flux<MessageWrapper>> source) {
+        List<String> key = Arrays.asList(groupSubscription.getTopic(), groupSubscription.getGroup());
+        ConsumerGroup existing = this.groups.get(key);
+
+        // a rejected subscription leaves the current one of the client in place
+        if (existing != null && !existing.accepts(id, groupSubscription)) {
+            throw new IllegalArgumentException("group: " + groupSubscription.getGroup() + " has members with other settings");
+        }
+
+        this.unsubscribeTopic(id, groupSubscription.getTopic());
+
+        ConsumerGroup consumerGroup = this.groups.compute(key, (k, group) -> {
+            ConsumerGroup target = (group != null)
+                    ? group
+                    : new ConsumerGroup(groupSubscription, this.groupBacklogCapacity, this.groupDroppedCounter, this.groupRedeliveredCounter);
+
+            if (!target.isCompatible(groupSubscription)) {
+                throw new IllegalArgumentException("group: " + groupSubscription.getGroup() + " has members with other settings");
+            }
+
+            target.join(id, groupSubscription.getPrefetch(), consumer);
+            return target;
+        });
+
+        // delivering may block on the member's session, it must not happen while compute holds the map's bin
+        consumerGroup.deliverBacklog();
+        consumerGroup.connect(source);
+        this.subscribeTopic(id, groupSubscription.getTopic(), () -> this.leaveGroup(key, id));
+        LOGGER.info("client: {} joined group: {} of: {}", id, groupSubscription.getGroup(), groupSubscription.getTopic());
+    }
+
+    @Override
+    public boolean acknowledge(String id, String topic, String group, long deliveryTag, boolean multiple) {
+        ConsumerGroup consumerGroup = this.groups.get(Arrays.asList(topic, group));
+        return consumerGroup != null && consumerGroup.acknowledge(id, deliveryTag, multiple);
+    }
+
     @Override
     public void unsubscribeTopic(String id, String topic) {
         Map<String, Disposable> disposableMap = this.consumers.get(id);
@@ -57,6 +132,11 @@ public class ConsumerSessionHandlerImpl implements ConsumerSessionHandler {
         LOGGER.info("client: {} unsubscribed all sessions", id);
     }
 
+    private void leaveGroup(List<String> key, String id) {
+        this.groups.computeIfPresent(key, (k, group) -> group.leave(id) ? null : group);
+        LOGGER.info("client: {} left group: {} of: {}", id, key.get(1), key.get(0));
+    }
+
     @Override
     public void removeSubscriber(String id) {
         this.unsubscribeAllTopics(id);
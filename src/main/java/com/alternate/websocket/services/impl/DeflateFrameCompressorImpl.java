@@ -0,0 +1,125 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.websocket.services.FrameCompressor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses frames for sessions that negotiated a "+deflate" subprotocol. Binary frames on such sessions start
+ * with a flag byte, 0 for a plain frame and 1 for a zlib stream deflated with the preset dictionary; text frames
+ * are only ever sent plain. Nothing is cached here: a frame shared by every session of a fan-out is compressed
+ * once through the encodings cached on its message.
+ */
+@Service
+public class DeflateFrameCompressorImpl implements FrameCompressor {
+
+    private static final String SUB_PROTOCOL_SUFFIX = "+deflate";
+    private static final byte PLAIN = 0;
+    private static final byte DEFLATED = 1;
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final boolean enabled;
+    private final int threshold;
+    private final String dictionary;
+    private final byte[] dictionaryBytes;
+
+    @Autowired
+    public DeflateFrameCompressorImpl(@Value("${websocket.compression.enabled:true}") boolean enabled,
+                                      @Value("${websocket.compression.threshold-bytes:512}") int threshold,
+                                      @Value("${websocket.compression.level:6}") int level,
+                                      @Value("${websocket.compression.dictionary:}") String dictionary) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.dictionary = dictionary;
+        this.dictionaryBytes = dictionary.getBytes(StandardCharsets.UTF_8);
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public String getSubProtocolSuffix() {
+        return SUB_PROTOCOL_SUFFIX;
+    }
+
+    @Override
+    public boolean isNegotiated(String acceptedProtocol) {
+        return this.enabled && acceptedProtocol != null && acceptedProtocol.toLowerCase().endsWith(SUB_PROTOCOL_SUFFIX);
+    }
+
+    @Override
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public String getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public WebSocketMessage<?> compress(WebSocketMessage<?> message) {
+        // control frames go out as they are
+        if (!(message instanceof TextMessage) && !(message instanceof BinaryMessage)) {
+            return message;
+        }
+
+        if (message.getPayloadLength() < this.threshold) {
+            return (message instanceof TextMessage) ? message : this.plain((BinaryMessage) message);
+        }
+
+        return new BinaryMessage(this.deflate(this.toByteArray(message)));
+    }
+
+    private BinaryMessage plain(BinaryMessage message) {
+        ByteBuffer payload = message.getPayload().duplicate();
+        ByteBuffer flagged = ByteBuffer.allocate(payload.remaining() + 1).put(PLAIN).put(payload);
+        flagged.flip();
+        return new BinaryMessage(flagged);
+    }
+
+    private byte[] deflate(byte[] bytes) {
+        Deflater deflater = this.deflaters.get();
+        deflater.reset();
+
+        if (this.dictionaryBytes.length > 0) {
+            deflater.setDictionary(this.dictionaryBytes);
+        }
+
+        deflater.setInput(bytes);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+        out.write(DEFLATED);
+
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+
+        return out.toByteArray();
+    }
+
+    private byte[] toByteArray(WebSocketMessage<?> message) {
+        if (message instanceof TextMessage) {
+            return ((TextMessage) message).asBytes();
+        }
+
+        ByteBuffer payload = ((BinaryMessage) message).getPayload().duplicate();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,83 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.websocket.models.Message;
+import com.alternate.websocket.models.MessageType;
+import com.alternate.websocket.models.WireFormat;
+import com.alternate.websocket.services.FrameCodec;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+@Service
+public class JsonFrameCodecImpl implements FrameCodec {
+
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public JsonFrameCodecImpl(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public WireFormat getWireFormat() {
+        return WireFormat.JSON;
+    }
+
+    @Override
+    public Object encodeContent(Map<String, Object> content) {
+        return this.writeValueAsString(content);
+    }
+
+    @Override
+    public Object encodeBatchContent(List<WebSocketMessage<?>> messages) {
+        StringJoiner content = new StringJoiner(",", "{\"messages\":[", "]}");
+        messages.forEach(message -> content.add(((TextMessage) message).getPayload()));
+        return content.toString();
+    }
+
+    @Override
+    public Object encodeFrame(MessageType type, Map<String, String> headers, Object encodedContent) {
+        String content = (String) encodedContent;
+        StringBuilder frame = new StringBuilder((content != null ? content.length() : 0) + 64)
+                .append("{\"type\":\"").append(type.name()).append('"');
+
+        if (headers != null) {
+            frame.append(",\"headers\":").append(this.writeValueAsString(headers));
+        }
+
+        if (content != null) {
+            frame.append(",\"content\":").append(content);
+        }
+
+        // built from bytes, so the frame is encoded to UTF-8 once however many sessions measure or compress it
+        return new TextMessage(frame.append('}').toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public WebSocketMessage<?> toWebSocketMessage(Object frame) {
+        return (TextMessage) frame;
+    }
+
+    @Override
+    public Message decode(WebSocketMessage<?> message) throws IOException {
+        return this.objectMapper.readValue(((TextMessage) message).getPayload(), Message.class);
+    }
+
+    private String writeValueAsString(Object value) {
+        try {
+            return this.objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.messagebroker.models.DeliveryMode;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.websocket.models.Message;
+import com.alternate.websocket.models.MessageType;
+import com.alternate.websocket.models.WireFormat;
+import com.alternate.websocket.services.FrameCodec;
+import com.alternate.websocket.services.MessageCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MESSAGE frames are built from the payload (or delta) encoded once per event and wire format and cached on
+ * the {@link MessageWrapper}; frames without per-subscription headers are shared by every session.
+ */
+@Service
+public class MessageCodecImpl implements MessageCodec {
+
+    private final Map<WireFormat, FrameCodec> frameCodecs = new EnumMap<>(WireFormat.class);
+
+    @Autowired
+    public MessageCodecImpl(List<FrameCodec> frameCodecs) {
+        frameCodecs.forEach(frameCodec -> this.frameCodecs.put(frameCodec.getWireFormat(), frameCodec));
+    }
+
+    @Override
+    public WebSocketMessage<?> encode(Message message, WireFormat wireFormat) {
+        FrameCodec frameCodec = this.frameCodecs.get(wireFormat);
+        Object content = (message.getContent() != null) ? frameCodec.encodeContent(message.getContent()) : null;
+        return frameCodec.toWebSocketMessage(frameCodec.encodeFrame(message.getType(), message.getHeaders(), content));
+    }
+
+    @Override
+    public WebSocketMessage<?> encode(MessageWrapper messageWrapper, DeliveryMode deliveryMode, Map<String, String> headers, WireFormat wireFormat) {
+        FrameCodec frameCodec = this.frameCodecs.get(wireFormat);
+        boolean delta = deliveryMode == DeliveryMode.DELTA && messageWrapper.isDelta();
+        String frameKey = wireFormat.getSubProtocol() + (delta ? ":delta-frame" : ":frame");
+
+        Object frame = (headers == null || headers.isEmpty())
+                ? messageWrapper.getEncoding(frameKey, m -> this.frame(frameCodec, m, delta, null))
+                : this.frame(frameCodec, messageWrapper, delta, headers);
+
+        return frameCodec.toWebSocketMessage(frame);
+    }
+
+    @Override
+    public WebSocketMessage<?> encodeBatch(List<WebSocketMessage<?>> messages, WireFormat wireFormat) {
+        FrameCodec frameCodec = this.frameCodecs.get(wireFormat);
+        Map<String, String> headers = Collections.singletonMap("batch", String.valueOf(messages.size()));
+        return frameCodec.toWebSocketMessage(frameCodec.encodeFrame(MessageType.MESSAGE, headers, frameCodec.encodeBatchContent(messages)));
+    }
+
+    @Override
+    public Message decode(WebSocketMessage<?> message, WireFormat wireFormat) throws IOException {
+        FrameCodec frameCodec = (message instanceof TextMessage) ? this.frameCodecs.get(WireFormat.JSON) : this.frameCodecs.get(wireFormat);
+        return frameCodec.decode(message);
+    }
+
+    private Object frame(FrameCodec frameCodec, MessageWrapper messageWrapper, boolean delta, Map<String, String> extraHeaders) {
+        String contentKey = frameCodec.getWireFormat().getSubProtocol() + (delta ? ":delta-content" : ":content");
+        Object content = messageWrapper.getEncoding(contentKey,
+                m -> frameCodec.encodeContent(delta ? this.deltaContent(m) : m.getPayload()));
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("topic", messageWrapper.getTopic());
+
+        if (delta) {
+            headers.put("delivery", "delta");
+        }
+
+        if (messageWrapper.getPosition() != null) {
+            headers.put("position", messageWrapper.getPosition());
+        }
+
+        if (extraHeaders != null) {
+            headers.putAll(extraHeaders);
+        }
+
+        return frameCodec.encodeFrame(MessageType.MESSAGE, headers, content);
+    }
+
+    private Map<String, Object> deltaContent(MessageWrapper messageWrapper) {
+        Map<String, Object> content = new LinkedHashMap<>();
+        content.put("_id", messageWrapper.getId());
+        content.put("updatedFields", messageWrapper.getUpdatedFields());
+        content.put("removedFields", messageWrapper.getRemovedFields());
+        return content;
+    }
+}
@@ -0,0 +1,213 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.websocket.models.OverflowPolicy;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Bounded queue of frames waiting to be written to one session. What happens when the queue is full is
+ * decided by the overflow policy of the frame being offered. Frames offered with DISCONNECT are never dropped to
+ * make room for others, a session that cannot take them is disconnected instead.
+ */
+class OutboundQueue {
+
+    enum OfferResult {
+        QUEUED,
+        DROPPED,
+        OVERFLOWED,
+        CLOSED
+    }
+
+    private final int capacity;
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final Map<String, Entry> conflatedEntries = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = this.lock.newCondition();
+    private long bytes;
+    private boolean closed;
+
+    OutboundQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    OfferResult offer(WebSocketMessage<?> message, Supplier<WebSocketMessage<?>> compressedMessage, OverflowPolicy overflowPolicy,
+                      String conflationKey, boolean batchable) throws InterruptedException {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return OfferResult.CLOSED;
+            }
+
+            if (overflowPolicy == OverflowPolicy.CONFLATE && conflationKey != null) {
+                Entry entry = this.conflatedEntries.get(conflationKey);
+
+                if (entry != null) {
+                    int payloadLength = message.getPayloadLength();
+                    this.bytes += payloadLength - entry.payloadLength;
+                    entry.message = message;
+                    entry.payloadLength = payloadLength;
+                    entry.compressedMessage = compressedMessage;
+                    return OfferResult.QUEUED;
+                }
+            }
+
+            if (this.entries.size() >= this.capacity) {
+                switch (overflowPolicy) {
+                    case BLOCK:
+                        while (this.entries.size() >= this.capacity && !this.closed) {
+                            this.notFull.await();
+                        }
+
+                        if (this.closed) {
+                            return OfferResult.CLOSED;
+                        }
+                        break;
+                    case DROP_NEWEST:
+                        return OfferResult.DROPPED;
+                    case DISCONNECT:
+                        return OfferResult.OVERFLOWED;
+                    case DROP_OLDEST:
+                    case CONFLATE:
+                    default:
+                        if (!this.evictOldest()) {
+                            return OfferResult.DROPPED;
+                        }
+                        break;
+                }
+            }
+
+            Entry entry = new Entry(message, compressedMessage, (overflowPolicy == OverflowPolicy.CONFLATE) ? conflationKey : null,
+                    overflowPolicy != OverflowPolicy.DISCONNECT, batchable);
+            this.entries.add(entry);
+            this.bytes += entry.payloadLength;
+
+            if (entry.conflationKey != null) {
+                this.conflatedEntries.put(entry.conflationKey, entry);
+            }
+
+            return OfferResult.QUEUED;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    Entry poll() {
+        this.lock.lock();
+        try {
+            return this.take();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    int size() {
+        this.lock.lock();
+        try {
+            return this.entries.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    long bytes() {
+        this.lock.lock();
+        try {
+            return this.bytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.entries.clear();
+            this.conflatedEntries.clear();
+            this.bytes = 0;
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private Entry take() {
+        Entry entry = this.entries.poll();
+
+        if (entry == null) {
+            return null;
+        }
+
+        this.forget(entry);
+        this.notFull.signal();
+        return entry;
+    }
+
+    private boolean evictOldest() {
+        Iterator<Entry> iterator = this.entries.iterator();
+
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+
+            if (entry.evictable) {
+                iterator.remove();
+                this.forget(entry);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void forget(Entry entry) {
+        this.bytes -= entry.payloadLength;
+
+        if (entry.conflationKey != null) {
+            this.conflatedEntries.remove(entry.conflationKey, entry);
+        }
+    }
+
+    static class Entry {
+        private WebSocketMessage<?> message;
+        private Supplier<WebSocketMessage<?>> compressedMessage;
+        private int payloadLength;
+        private final String conflationKey;
+        private final boolean evictable;
+        private final boolean batchable;
+        private final long enqueuedNanos = System.nanoTime();
+
+        private Entry(WebSocketMessage<?> message, Supplier<WebSocketMessage<?>> compressedMessage, String conflationKey,
+                      boolean evictable, boolean batchable) {
+            this.message = message;
+            this.compressedMessage = compressedMessage;
+            this.payloadLength = message.getPayloadLength();
+            this.conflationKey = conflationKey;
+            this.evictable = evictable;
+            this.batchable = batchable;
+        }
+
+        WebSocketMessage<?> getMessage() {
+            return message;
+        }
+
+        Supplier<WebSocketMessage<?>> getCompressedMessage() {
+            return compressedMessage;
+        }
+
+        boolean isBatchable() {
+            return batchable;
+        }
+
+        long getEnqueuedNanos() {
+            return enqueuedNanos;
+        }
+    }
+}
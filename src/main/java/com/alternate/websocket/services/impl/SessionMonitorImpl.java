@@ -0,0 +1,245 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.common.util.HashedWheelTimer;
+import com.alternate.websocket.models.OverflowPolicy;
+import com.alternate.websocket.services.ConsumerSessionHandler;
+import com.alternate.websocket.services.SessionMonitor;
+import com.alternate.websocket.services.SessionSender;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes sessions that went quiet. A session is closed when no frame arrived from it within the idle timeout, or,
+ * once it has sent a HEART_BEAT, when the next one is late by more than the heartbeat timeout. Frames only record
+ * their arrival time; each session has one timeout on a hashed wheel that checks those times when it expires and
+ * either closes the session or schedules itself again for the earliest time the session could expire. Every session
+ * is also pinged each ping interval from the same wheel, and closed once maxMissedPongs pings in a row went by
+ * without a pong or any other frame, so a half-open connection is reaped even if its client never heartbeats.
+ */
+@Service
+public class SessionMonitorImpl implements SessionMonitor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionMonitorImpl.class);
+
+    private final Map<String, Liveness> sessions = new ConcurrentHashMap<>();
+    private final ExecutorService closeExecutor;
+    private final HashedWheelTimer timer;
+    private final ConsumerSessionHandler consumerSessionHandler;
+    private final SessionSender sessionSender;
+    private final long idleTimeoutNanos;
+    private final long heartBeatTimeoutNanos;
+    private final long pingIntervalNanos;
+    private final int maxMissedPongs;
+    private final Counter idleReapedCounter;
+    private final Counter heartBeatReapedCounter;
+    private final Counter pingReapedCounter;
+
+    @Autowired
+    public SessionMonitorImpl(ConsumerSessionHandler consumerSessionHandler, SessionSender sessionSender, MeterRegistry meterRegistry,
+                              @Value("${websocket.liveness.tick-ms:100}") long tickMillis,
+                              @Value("${websocket.liveness.wheel-size:512}") int wheelSize,
+                              @Value("${websocket.liveness.idle-timeout-ms:0}") long idleTimeoutMillis,
+                              @Value("${websocket.liveness.heartbeat-timeout-ms:90000}") long heartBeatTimeoutMillis,
+                              @Value("${websocket.liveness.ping-interval-ms:30000}") long pingIntervalMillis,
+                              @Value("${websocket.liveness.max-missed-pongs:3}") int maxMissedPongs,
+                              @Value("${websocket.liveness.close-threads:4}") int closeThreads) {
+        this.consumerSessionHandler = consumerSessionHandler;
+        this.sessionSender = sessionSender;
+        this.timer = new HashedWheelTimer(tickMillis, wheelSize);
+        this.closeExecutor = Executors.newFixedThreadPool(closeThreads);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.heartBeatTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(heartBeatTimeoutMillis);
+        this.pingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pingIntervalMillis);
+        this.maxMissedPongs = Math.max(1, maxMissedPongs);
+
+        this.idleReapedCounter = Counter.builder("websocket.sessions.reaped")
+                .description("sessions closed because they went quiet")
+                .tag("reason", "idle")
+                .register(meterRegistry);
+        this.heartBeatReapedCounter = Counter.builder("websocket.sessions.reaped")
+                .description("sessions closed because they went quiet")
+                .tag("reason", "heartbeat")
+                .register(meterRegistry);
+        this.pingReapedCounter = Counter.builder("websocket.sessions.reaped")
+                .description("sessions closed because they went quiet")
+                .tag("reason", "ping")
+                .register(meterRegistry);
+
+        meterRegistry.gauge("websocket.sessions.monitored", this.sessions, Map::size);
+    }
+
+    @Override
+    public void register(WebSocketSession session) {
+        if (this.idleTimeoutNanos <= 0 && this.heartBeatTimeoutNanos <= 0 && this.pingIntervalNanos <= 0) {
+            return;
+        }
+
+        Liveness liveness = new Liveness(session);
+        this.sessions.put(session.getId(), liveness);
+
+        if (this.idleTimeoutNanos > 0 || this.heartBeatTimeoutNanos > 0) {
+            this.schedule(liveness, Math.min(this.idleTimeoutNanos > 0 ? this.idleTimeoutNanos : Long.MAX_VALUE,
+                    this.heartBeatTimeoutNanos > 0 ? this.heartBeatTimeoutNanos : Long.MAX_VALUE));
+        }
+
+        if (this.pingIntervalNanos > 0) {
+            this.schedulePing(liveness);
+        }
+    }
+
+    @Override
+    public void recordActivity(String id) {
+        Liveness liveness = this.sessions.get(id);
+
+        if (liveness != null) {
+            liveness.lastActivityNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void recordHeartBeat(String id) {
+        Liveness liveness = this.sessions.get(id);
+
+        if (liveness != null) {
+            long now = System.nanoTime();
+            liveness.lastActivityNanos = now;
+            liveness.lastHeartBeatNanos = now;
+        }
+    }
+
+    @Override
+    public void unregister(String id) {
+        Liveness liveness = this.sessions.remove(id);
+
+        if (liveness != null) {
+            liveness.cancel();
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        this.timer.shutdown();
+        this.closeExecutor.shutdownNow();
+    }
+
+    private void schedule(Liveness liveness, long delayNanos) {
+        liveness.timeout = this.timer.schedule(() -> this.check(liveness), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void schedulePing(Liveness liveness) {
+        liveness.pingTimeout = this.timer.schedule(() -> this.ping(liveness), this.pingIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // runs on the timer thread; any frame since the last ping counts as its pong
+    private void ping(Liveness liveness) {
+        if (this.sessions.get(liveness.session.getId()) != liveness) {
+            return;
+        }
+
+        if (liveness.pingSentNanos != 0 && liveness.lastActivityNanos - liveness.pingSentNanos < 0) {
+            liveness.missedPongs++;
+        } else {
+            liveness.missedPongs = 0;
+        }
+
+        if (liveness.missedPongs >= this.maxMissedPongs) {
+            this.reap(liveness, "ping", this.pingReapedCounter);
+            return;
+        }
+
+        // queued behind the session's other frames; a full queue drops the ping, which then counts as missed
+        liveness.pingSentNanos = System.nanoTime();
+        this.sessionSender.send(liveness.session.getId(), new PingMessage(), null, OverflowPolicy.DROP_NEWEST, null, false);
+        this.schedulePing(liveness);
+    }
+
+    // runs on the timer thread, closing is handed off because it may block on a dead connection
+    private void check(Liveness liveness) {
+        if (this.sessions.get(liveness.session.getId()) != liveness) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long idleRemaining = (this.idleTimeoutNanos > 0) ? liveness.lastActivityNanos + this.idleTimeoutNanos - now : Long.MAX_VALUE;
+        long heartBeatRemaining = Long.MAX_VALUE;
+
+        if (this.heartBeatTimeoutNanos > 0) {
+            // a session that has not sent a heartbeat yet is looked at again a heartbeat timeout later
+            heartBeatRemaining = (liveness.lastHeartBeatNanos != 0)
+                    ? liveness.lastHeartBeatNanos + this.heartBeatTimeoutNanos - now
+                    : this.heartBeatTimeoutNanos;
+        }
+
+        if (heartBeatRemaining <= 0) {
+            this.reap(liveness, "heartbeat", this.heartBeatReapedCounter);
+        } else if (idleRemaining <= 0) {
+            this.reap(liveness, "idle", this.idleReapedCounter);
+        } else {
+            this.schedule(liveness, Math.min(idleRemaining, heartBeatRemaining));
+        }
+    }
+
+    private void reap(Liveness liveness, String reason, Counter counter) {
+        String id = liveness.session.getId();
+
+        if (!this.sessions.remove(id, liveness)) {
+            return;
+        }
+        liveness.cancel();
+
+        counter.increment();
+        LOGGER.warn("client: {} {} timeout, closing session", id, reason);
+
+        this.closeExecutor.execute(() -> {
+            this.consumerSessionHandler.removeSubscriber(id);
+            this.sessionSender.closeSession(id);
+
+            try {
+                liveness.session.close(CloseStatus.SESSION_NOT_RELIABLE.withReason(reason + " timeout"));
+            } catch (IOException e) {
+                LOGGER.error("client: {} close failed", id, e);
+            }
+        });
+    }
+
+    private static class Liveness {
+        private final WebSocketSession session;
+        private volatile long lastActivityNanos = System.nanoTime();
+        private volatile long lastHeartBeatNanos;
+        private volatile HashedWheelTimer.Timeout timeout;
+        private volatile HashedWheelTimer.Timeout pingTimeout;
+        // only touched on the timer thread
+        private long pingSentNanos;
+        private int missedPongs;
+
+        private Liveness(WebSocketSession session) {
+            this.session = session;
+        }
+
+        private void cancel() {
+            if (this.timeout != null) {
+                this.timeout.cancel();
+            }
+
+            if (this.pingTimeout != null) {
+                this.pingTimeout.cancel();
+            }
+        }
+    }
+}
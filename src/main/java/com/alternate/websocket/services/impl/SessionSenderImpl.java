@@ -0,0 +1,301 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.websocket.models.OverflowPolicy;
+import com.alternate.websocket.models.WireFormat;
+import com.alternate.websocket.services.FrameCompressor;
+import com.alternate.websocket.services.MessageCodec;
+import com.alternate.websocket.services.SessionSender;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Writes the frames queued for each session, one drain per session at a time on a shared, fixed size pool.
+ * Batchable frames are collected into a batch that is sent once it is full or its first frame has lingered for the
+ * session's linger time; a lingering batch is held by its outbox and flushed by a timer, not by a thread waiting for
+ * more frames.
+ */
+@Service
+public class SessionSenderImpl implements SessionSender {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionSenderImpl.class);
+
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService lingerScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService executor;
+    private final MessageCodec messageCodec;
+    private final FrameCompressor frameCompressor;
+    private final int queueCapacity;
+    private final Timer writeTimer;
+    private final Timer deliveryTimer;
+    private final Counter droppedCounter;
+
+    @Autowired
+    public SessionSenderImpl(MessageCodec messageCodec, FrameCompressor frameCompressor, MeterRegistry meterRegistry,
+                             @Value("${websocket.outbound.queue-capacity:1024}") int queueCapacity,
+                             @Value("${websocket.outbound.drain-threads:8}") int drainThreads) {
+        this.executor = Executors.newFixedThreadPool(drainThreads);
+        this.messageCodec = messageCodec;
+        this.frameCompressor = frameCompressor;
+        this.queueCapacity = queueCapacity;
+
+        this.writeTimer = Timer.builder("websocket.send.write")
+                .description("time to write one frame to a session")
+                .register(meterRegistry);
+        this.deliveryTimer = Timer.builder("websocket.send.latency")
+                .description("time from queueing a frame for a session until it is written")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("websocket.send.dropped")
+                .description("frames dropped because a session outbound queue was full")
+                .register(meterRegistry);
+
+        meterRegistry.gauge("websocket.sessions.active", this.outboxes, Map::size);
+        meterRegistry.gauge("websocket.outbound.queue.depth", this.outboxes,
+                outboxes -> outboxes.values().stream().mapToInt(outbox -> outbox.queue.size()).sum());
+        meterRegistry.gauge("websocket.outbound.buffered.bytes", this.outboxes,
+                outboxes -> outboxes.values().stream().mapToLong(outbox -> outbox.queue.bytes()).sum());
+        meterRegistry.gauge("websocket.outbound.buffered.bytes.max", this.outboxes,
+                outboxes -> outboxes.values().stream().mapToLong(outbox -> outbox.queue.bytes()).max().orElse(0));
+    }
+
+    @Override
+    public void openSession(WebSocketSession session) {
+        boolean compressed = this.frameCompressor.isNegotiated(session.getAcceptedProtocol());
+        this.outboxes.put(session.getId(), new Outbox(session, new OutboundQueue(this.queueCapacity), compressed));
+    }
+
+    @Override
+    public void closeSession(String id) {
+        Outbox outbox = this.outboxes.remove(id);
+
+        if (outbox != null) {
+            outbox.queue.close();
+            outbox.cancelLinger();
+        }
+    }
+
+    @Override
+    public void configureBatching(String id, int maxBatchSize, long lingerMillis) {
+        Outbox outbox = this.outboxes.get(id);
+
+        if (outbox != null) {
+            outbox.maxBatchSize = maxBatchSize;
+            outbox.lingerMillis = lingerMillis;
+        }
+    }
+
+    @Override
+    public void send(String id, WebSocketMessage<?> message, Supplier<WebSocketMessage<?>> compressedMessage,
+                     OverflowPolicy overflowPolicy, String conflationKey, boolean batchable) {
+        Outbox outbox = this.outboxes.get(id);
+
+        if (outbox == null) {
+            return;
+        }
+
+        OutboundQueue.OfferResult offerResult;
+        try {
+            offerResult = outbox.queue.offer(message, compressedMessage, overflowPolicy, conflationKey, batchable);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        switch (offerResult) {
+            case QUEUED:
+                this.schedule(outbox);
+                break;
+            case DROPPED:
+                this.droppedCounter.increment();
+                LOGGER.debug("client: {} outbound queue full, message dropped", id);
+                break;
+            case OVERFLOWED:
+                LOGGER.warn("client: {} outbound queue full, disconnecting", id);
+                this.disconnect(outbox);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public int getQueueDepth(String id) {
+        Outbox outbox = this.outboxes.get(id);
+        return (outbox != null) ? outbox.queue.size() : 0;
+    }
+
+    @Override
+    public long getBufferedBytes(String id) {
+        Outbox outbox = this.outboxes.get(id);
+        return (outbox != null) ? outbox.queue.bytes() : 0;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> queueDepths = new HashMap<>();
+        this.outboxes.forEach((id, outbox) -> queueDepths.put(id, outbox.queue.size()));
+        return queueDepths;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        this.lingerScheduler.shutdownNow();
+        this.executor.shutdownNow();
+    }
+
+    private void schedule(Outbox outbox) {
+        if (outbox.scheduled.compareAndSet(false, true)) {
+            this.executor.execute(() -> this.drain(outbox));
+        }
+    }
+
+    // the batch of an outbox is only touched here, drains of one outbox never overlap
+    private void drain(Outbox outbox) {
+        outbox.lingerExpired = false;
+
+        try {
+            OutboundQueue.Entry entry;
+
+            while ((entry = outbox.queue.poll()) != null) {
+                if (entry.isBatchable() && outbox.maxBatchSize > 1) {
+                    outbox.batch.add(entry);
+
+                    if (outbox.batch.size() >= outbox.maxBatchSize) {
+                        this.sendBatch(outbox);
+                    }
+                } else {
+                    this.sendBatch(outbox);
+                    this.write(outbox, entry);
+                    this.recordDelivery(entry);
+                }
+            }
+
+            if (!outbox.batch.isEmpty()) {
+                long remaining = outbox.batch.get(0).getEnqueuedNanos() + TimeUnit.MILLISECONDS.toNanos(outbox.lingerMillis) - System.nanoTime();
+
+                if (remaining <= 0) {
+                    this.sendBatch(outbox);
+                } else if (outbox.linger == null) {
+                    outbox.linger = this.lingerScheduler.schedule(() -> {
+                        outbox.lingerExpired = true;
+                        this.schedule(outbox);
+                    }, remaining, TimeUnit.NANOSECONDS);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("client: {} send failed, disconnecting", outbox.session.getId(), e);
+            this.disconnect(outbox);
+        } finally {
+            outbox.scheduled.set(false);
+        }
+
+        // a linger that expired while this drain ran could not schedule one of its own
+        if (outbox.queue.size() > 0 || outbox.lingerExpired) {
+            this.schedule(outbox);
+        }
+    }
+
+    private void sendBatch(Outbox outbox) throws IOException {
+        List<OutboundQueue.Entry> batch = outbox.batch;
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        outbox.cancelLinger();
+
+        if (batch.size() == 1) {
+            this.write(outbox, batch.get(0));
+        } else {
+            WireFormat wireFormat = WireFormat.fromSubProtocol(outbox.session.getAcceptedProtocol());
+            List<WebSocketMessage<?>> messages = batch.stream().map(OutboundQueue.Entry::getMessage).collect(Collectors.toList());
+            this.write(outbox, this.messageCodec.encodeBatch(messages, wireFormat));
+        }
+
+        batch.forEach(this::recordDelivery);
+        batch.clear();
+    }
+
+    private void write(Outbox outbox, OutboundQueue.Entry entry) throws IOException {
+        if (outbox.compressed && entry.getCompressedMessage() != null) {
+            this.write(outbox, entry.getCompressedMessage().get(), false);
+        } else {
+            this.write(outbox, entry.getMessage(), outbox.compressed);
+        }
+    }
+
+    private void write(Outbox outbox, WebSocketMessage<?> message) throws IOException {
+        this.write(outbox, message, outbox.compressed);
+    }
+
+    private void write(Outbox outbox, WebSocketMessage<?> message, boolean compress) throws IOException {
+        long start = System.nanoTime();
+        outbox.session.sendMessage(compress ? this.frameCompressor.compress(message) : message);
+        this.writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void recordDelivery(OutboundQueue.Entry entry) {
+        this.deliveryTimer.record(System.nanoTime() - entry.getEnqueuedNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void disconnect(Outbox outbox) {
+        this.closeSession(outbox.session.getId());
+
+        try {
+            outbox.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            LOGGER.error("client: {} close failed", outbox.session.getId(), e);
+        }
+    }
+
+    private static class Outbox {
+        private final WebSocketSession session;
+        private final OutboundQueue queue;
+        private final boolean compressed;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final List<OutboundQueue.Entry> batch = new ArrayList<>();
+        private volatile int maxBatchSize = 1;
+        private volatile long lingerMillis;
+        private volatile ScheduledFuture<?> linger;
+        private volatile boolean lingerExpired;
+
+        private Outbox(WebSocketSession session, OutboundQueue queue, boolean compressed) {
+            this.session = session;
+            this.queue = queue;
+            this.compressed = compressed;
+        }
+
+        private void cancelLinger() {
+            ScheduledFuture<?> linger = this.linger;
+
+            if (linger != null) {
+                linger.cancel(false);
+                this.linger = null;
+            }
+        }
+    }
+}
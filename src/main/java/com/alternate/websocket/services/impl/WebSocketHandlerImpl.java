@@ -1,62 +1,252 @@
 package com.alternate.websocket.services.impl;
 
+import com.alternate.messagebroker.exceptions.PublishRejectedException;
+import com.alternate.messagebroker.models.AckMode;
+import com.alternate.messagebroker.models.DeliveryMode;
+import com.alternate.messagebroker.models.FilterExpression;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.messagebroker.models.ReplayFrom;
+import com.alternate.messagebroker.models.Subscription;
 import com.alternate.messagebroker.services.MessageBroker;
+import com.alternate.websocket.models.GroupBalancing;
+import com.alternate.websocket.models.GroupSubscription;
 import com.alternate.websocket.models.Message;
 import com.alternate.websocket.models.MessageType;
+import com.alternate.websocket.models.OverflowPolicy;
+import com.alternate.websocket.models.WireFormat;
 import com.alternate.websocket.services.ConsumerSessionHandler;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.alternate.websocket.services.FrameCompressor;
+import com.alternate.websocket.services.MessageCodec;
+import com.alternate.websocket.services.SessionMonitor;
+import com.alternate.websocket.services.SessionSender;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 @Service
-public class WebSocketHandlerImpl extends TextWebSocketHandler {
+public class WebSocketHandlerImpl extends AbstractWebSocketHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketHandlerImpl.class);
 
-    private final ObjectMapper objectMapper;
     private final ConsumerSessionHandler consumerSessionHandler;
     private final MessageBroker messageBroker;
+    private final SessionSender sessionSender;
+    private final MessageCodec messageCodec;
+    private final FrameCompressor frameCompressor;
+    private final SessionMonitor sessionMonitor;
+    private final OverflowPolicy defaultOverflowPolicy;
+    private final AckMode defaultAckMode;
+    private final int defaultPrefetch;
+    private final int maxPublishBatchSize;
+    private final int publishWindow;
+    private final long retryAfterMs;
+    private final Counter windowThrottledCounter;
+    private final Counter brokerThrottledCounter;
+    private final int maxMessageSize;
+    private final Map<String, AtomicInteger> publishCredits = new ConcurrentHashMap<>();
+    private final Map<String, StringBuilder> partialTexts = new ConcurrentHashMap<>();
+    private final Map<String, ByteArrayOutputStream> partialBinaries = new ConcurrentHashMap<>();
 
     @Autowired
-    public WebSocketHandlerImpl(ObjectMapper objectMapper, ConsumerSessionHandler consumerSessionHandler, MessageBroker messageBroker) {
-        this.objectMapper = objectMapper;
+    public WebSocketHandlerImpl(ConsumerSessionHandler consumerSessionHandler, MessageBroker messageBroker,
+                                SessionSender sessionSender, MessageCodec messageCodec, FrameCompressor frameCompressor,
+                                SessionMonitor sessionMonitor, MeterRegistry meterRegistry,
+                                @Value("${websocket.outbound.overflow-policy:DROP_OLDEST}") OverflowPolicy defaultOverflowPolicy,
+                                @Value("${websocket.publish.ack:NONE}") AckMode defaultAckMode,
+                                @Value("${websocket.groups.prefetch:100}") int defaultPrefetch,
+                                @Value("${websocket.publish.max-batch-size:1000}") int maxPublishBatchSize,
+                                @Value("${websocket.publish.window:1000}") int publishWindow,
+                                @Value("${websocket.publish.retry-after-ms:100}") long retryAfterMs,
+                                @Value("${websocket.inbound.max-message-size:1048576}") int maxMessageSize) {
         this.consumerSessionHandler = consumerSessionHandler;
         this.messageBroker = messageBroker;
+        this.sessionSender = sessionSender;
+        this.messageCodec = messageCodec;
+        this.frameCompressor = frameCompressor;
+        this.sessionMonitor = sessionMonitor;
+        this.defaultOverflowPolicy = defaultOverflowPolicy;
+        this.defaultAckMode = defaultAckMode;
+        this.defaultPrefetch = defaultPrefetch;
+        this.maxPublishBatchSize = maxPublishBatchSize;
+        this.publishWindow = publishWindow;
+        this.retryAfterMs = retryAfterMs;
+        this.maxMessageSize = maxMessageSize;
+        this.windowThrottledCounter = Counter.builder("websocket.publish.throttled")
+                .description("publishes refused because the session had no credits left")
+                .tag("reason", "window")
+                .register(meterRegistry);
+        this.brokerThrottledCounter = Counter.builder("websocket.publish.throttled")
+                .description("publishes refused because the broker had too many messages waiting to be written")
+                .tag("reason", "broker")
+                .register(meterRegistry);
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        LOGGER.info("client: {} connected", session.getId());
-        Message message = Message.builder()
+        LOGGER.info("client: {} connected, protocol: {}", session.getId(), this.wireFormat(session));
+        this.sessionSender.openSession(session);
+        this.sessionMonitor.register(session);
+        this.publishCredits.put(session.getId(), new AtomicInteger(this.publishWindow));
+        Message.MessageBuilder builder = Message.builder()
                 .withType(MessageType.RESPONSE)
                 .withHeaders(null)
                 .withContentAttribute("status", "success")
                 .withContentAttribute("scope", "publish | subscribe")
-                .build();
-        this.sendMessage(session, message);
+                .withContentAttribute("publishWindow", this.publishWindow);
+
+        if (this.frameCompressor.isNegotiated(session.getAcceptedProtocol())) {
+            builder.withContentAttribute("compression", "deflate")
+                    .withContentAttribute("compressionThreshold", this.frameCompressor.getThreshold())
+                    .withContentAttribute("dictionary", this.frameCompressor.getDictionary());
+        }
+
+        this.sendMessage(session, builder.build());
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
         LOGGER.info("client: {} disconnected", session.getId());
+        this.sessionMonitor.unregister(session.getId());
+        this.publishCredits.remove(session.getId());
+        this.partialTexts.remove(session.getId());
+        this.partialBinaries.remove(session.getId());
         this.consumerSessionHandler.removeSubscriber(session.getId());
+        this.sessionSender.closeSession(session.getId());
+    }
+
+    // tomcat hands over messages larger than its 8 KB buffers in parts, they are joined here up to maxMessageSize
+    @Override
+    public boolean supportsPartialMessages() {
+        return true;
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage part) throws IOException {
+        this.sessionMonitor.recordActivity(session.getId());
+        TextMessage textMessage = this.assemble(session, part);
+
+        if (textMessage == null) {
+            return;
+        }
+
+        LOGGER.debug("message of {} chars received from client: {}", textMessage.getPayload().length(), session.getId());
+        this.handleMessage(session, this.messageCodec.decode(textMessage, WireFormat.JSON));
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage part) throws IOException {
+        this.sessionMonitor.recordActivity(session.getId());
+        BinaryMessage binaryMessage = this.assemble(session, part);
+
+        if (binaryMessage == null) {
+            return;
+        }
+
+        LOGGER.debug("binary message of {} bytes received from client: {}", binaryMessage.getPayloadLength(), session.getId());
+        WireFormat wireFormat = this.wireFormat(session);
+
+        if (wireFormat == WireFormat.JSON) {
+            this.handleUnsupportedMessage(session);
+            return;
+        }
+
+        this.handleMessage(session, this.messageCodec.decode(binaryMessage, wireFormat));
     }
 
     @Override
-    protected void handleTextMessage(WebSocketSession session, TextMessage textMessage) throws IOException {
-        LOGGER.info("message: {} received from client: {}", textMessage.getPayload(), session.getId());
-        Message message = this.objectMapper.readValue(textMessage.getPayload(), Message.class);
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        this.sessionMonitor.recordActivity(session.getId());
+    }
+
+    /**
+     * @return the whole message once its last part arrived, null until then or if it grew too large
+     */
+    private TextMessage assemble(WebSocketSession session, TextMessage part) throws IOException {
+        StringBuilder buffer = this.partialTexts.get(session.getId());
+
+        if (buffer == null && part.isLast()) {
+            return part;
+        }
+
+        if (buffer == null) {
+            buffer = new StringBuilder();
+            this.partialTexts.put(session.getId(), buffer);
+        }
+
+        buffer.append(part.getPayload());
+
+        if (buffer.length() > this.maxMessageSize) {
+            this.partialTexts.remove(session.getId());
+            session.close(CloseStatus.TOO_BIG_TO_PROCESS);
+            return null;
+        }
+
+        if (!part.isLast()) {
+            return null;
+        }
+
+        this.partialTexts.remove(session.getId());
+        return new TextMessage(buffer.toString());
+    }
+
+    private BinaryMessage assemble(WebSocketSession session, BinaryMessage part) throws IOException {
+        ByteArrayOutputStream buffer = this.partialBinaries.get(session.getId());
+
+        if (buffer == null && part.isLast()) {
+            return part;
+        }
+
+        if (buffer == null) {
+            buffer = new ByteArrayOutputStream();
+            this.partialBinaries.put(session.getId(), buffer);
+        }
+
+        ByteBuffer payload = part.getPayload();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        buffer.write(bytes);
+
+        if (buffer.size() > this.maxMessageSize) {
+            this.partialBinaries.remove(session.getId());
+            session.close(CloseStatus.TOO_BIG_TO_PROCESS);
+            return null;
+        }
+
+        if (!part.isLast()) {
+            return null;
+        }
+
+        this.partialBinaries.remove(session.getId());
+        return new BinaryMessage(buffer.toByteArray());
+    }
 
+    private void handleMessage(WebSocketSession session, Message message) throws IOException {
         if (message.getType() != MessageType.HEART_BEAT && message.getType() != MessageType.COMMAND) {
             this.handleUnsupportedMessage(session);
             return;
@@ -81,10 +271,16 @@ public class WebSocketHandlerImpl extends TextWebSocketHandler {
 
         switch (command) {
             case "PUBLISH":
-                this.handlePublishMessage(session, message.getHeaders().get("topic"), message.getContent());
+                this.handlePublishMessage(session, message.getHeaders(), message.getContent());
+                break;
+            case "PUBLISH_BATCH":
+                this.handlePublishBatchMessage(session, message.getHeaders(), message.getContent());
                 break;
             case "SUBSCRIBE":
-                this.handleSubscribeMessage(session, message.getHeaders().get("topic"), message.getContent().get("filter"));
+                this.handleSubscribeMessage(session, message.getHeaders(), message.getContent());
+                break;
+            case "ACK":
+                this.handleAckMessage(session, message.getHeaders());
                 break;
             default:
                 this.handleUnsupportedMessage(session);
@@ -92,13 +288,192 @@ public class WebSocketHandlerImpl extends TextWebSocketHandler {
         }
     }
 
-    private void handlePublishMessage(WebSocketSession session, String topic, Map<String, Object> content) throws IOException {
-        if (topic == null || content == null) {
+    private void handlePublishMessage(WebSocketSession session, Map<String, String> headers, Map<String, Object> content) throws IOException {
+        String topic = headers.get("topic");
+        AckMode ackMode = this.parseAckMode(headers.get("ack"));
+        String correlationId = headers.get("correlationId");
+        Map<String, String> responseHeaders = (correlationId != null) ? Collections.singletonMap("correlationId", correlationId) : null;
+
+        if (!isPublishTopic(topic) || content == null || ackMode == null) {
+            this.handleInvalidMessage(session, responseHeaders);
+            return;
+        }
+
+        if (!this.acquireCredits(session.getId(), 1)) {
+            this.windowThrottledCounter.increment();
+            this.handleThrottledMessage(session, responseHeaders, "publish window exhausted", this.retryAfterMs);
+            return;
+        }
+
+        Mono<String> acknowledgement;
+
+        try {
+            acknowledgement = this.messageBroker.publish(topic, content, ackMode)
+                    .doOnSuccessOrError((id, error) -> this.releaseCredits(session.getId(), 1));
+        } catch (PublishRejectedException e) {
+            this.releaseCredits(session.getId(), 1);
+            this.brokerThrottledCounter.increment();
+            this.handleThrottledMessage(session, responseHeaders, e.getMessage(), e.getRetryAfterMillis());
+            return;
+        }
+
+        if (ackMode == AckMode.NONE) {
+            // the credit is still held until the write completes
+            acknowledgement.subscribe(id -> { }, error -> { });
+            this.sendMessage(session, Message.builder()
+                    .withType(MessageType.RESPONSE)
+                    .withHeaders(responseHeaders)
+                    .withContentAttribute("status", "success")
+                    .withContentAttribute("credits", this.getCredits(session.getId()))
+                    .build());
+            return;
+        }
+
+        // the response follows the write, later commands of the session are handled meanwhile
+        acknowledgement.subscribe(
+                id -> this.sendMessage(session, Message.builder()
+                        .withType(MessageType.RESPONSE)
+                        .withHeaders(responseHeaders)
+                        .withContentAttribute("status", "success")
+                        .withContentAttribute("id", id)
+                        .withContentAttribute("credits", this.getCredits(session.getId()))
+                        .build()),
+                error -> this.sendMessage(session, Message.builder()
+                        .withType(MessageType.RESPONSE)
+                        .withHeaders(responseHeaders)
+                        .withContentAttribute("status", "unsuccessful")
+                        .withContentAttribute("message", "publish failed: " + error.getMessage())
+                        .withContentAttribute("credits", this.getCredits(session.getId()))
+                        .build()));
+    }
+
+    // entries are published in order, a "topic" header is the topic of entries without one
+    @SuppressWarnings("unchecked")
+    private void handlePublishBatchMessage(WebSocketSession session, Map<String, String> headers, Map<String, Object> content) throws IOException {
+        AckMode ackMode = this.parseAckMode(headers.get("ack"));
+        String correlationId = headers.get("correlationId");
+        Map<String, String> responseHeaders = (correlationId != null) ? Collections.singletonMap("correlationId", correlationId) : null;
+        Object messages = (content != null) ? content.get("messages") : null;
+
+        if (ackMode == null || !(messages instanceof List) || ((List<?>) messages).isEmpty()
+                || ((List<?>) messages).size() > Math.min(this.maxPublishBatchSize, this.publishWindow)) {
+            this.handleInvalidMessage(session, responseHeaders);
+            return;
+        }
+
+        List<String> topics = new ArrayList<>();
+        List<Map<String, Object>> payloads = new ArrayList<>();
+
+        // a batch with an invalid entry is rejected as a whole, before anything is published
+        for (Object entry : (List<?>) messages) {
+            Map<String, Object> fields = (entry instanceof Map) ? (Map<String, Object>) entry : Collections.emptyMap();
+            Object topic = fields.containsKey("topic") ? fields.get("topic") : headers.get("topic");
+            Object payload = fields.get("payload");
+
+            if (!(topic instanceof String) || !isPublishTopic((String) topic) || !(payload instanceof Map)) {
+                this.handleInvalidMessage(session, responseHeaders);
+                return;
+            }
+
+            topics.add((String) topic);
+            payloads.add((Map<String, Object>) payload);
+        }
+
+        // a batch takes one credit per entry and is admitted as a whole or not at all
+        if (!this.acquireCredits(session.getId(), topics.size())) {
+            this.windowThrottledCounter.increment(topics.size());
+            this.handleThrottledMessage(session, responseHeaders, "publish window exhausted", this.retryAfterMs);
+            return;
+        }
+
+        List<Mono<String>> acknowledgements = new ArrayList<>(topics.size());
+
+        try {
+            for (Mono<String> acknowledgement : this.messageBroker.publishAll(topics, payloads, ackMode)) {
+                acknowledgements.add(acknowledgement.doOnSuccessOrError((id, error) -> this.releaseCredits(session.getId(), 1)));
+            }
+        } catch (PublishRejectedException e) {
+            this.releaseCredits(session.getId(), topics.size());
+            this.brokerThrottledCounter.increment(topics.size());
+            this.handleThrottledMessage(session, responseHeaders, e.getMessage(), e.getRetryAfterMillis());
+            return;
+        }
+
+        if (ackMode == AckMode.NONE) {
+            acknowledgements.forEach(acknowledgement -> acknowledgement.subscribe(id -> { }, error -> { }));
+            this.sendMessage(session, Message.builder()
+                    .withType(MessageType.RESPONSE)
+                    .withHeaders(responseHeaders)
+                    .withContentAttribute("status", "success")
+                    .withContentAttribute("count", topics.size())
+                    .withContentAttribute("credits", this.getCredits(session.getId()))
+                    .build());
+            return;
+        }
+
+        // one response once every entry is written, with the id or the error of each entry in batch order
+        Flux.fromIterable(acknowledgements)
+                .concatMap(acknowledgement -> acknowledgement
+                        .map(id -> Collections.<String, Object>singletonMap("id", id))
+                        .onErrorResume(error -> Mono.just(Collections.singletonMap("error", String.valueOf(error.getMessage())))))
+                .collectList()
+                .subscribe(results -> this.sendMessage(session, Message.builder()
+                        .withType(MessageType.RESPONSE)
+                        .withHeaders(responseHeaders)
+                        .withContentAttribute("status", results.stream().allMatch(result -> result.containsKey("id")) ? "success" : "unsuccessful")
+                        .withContentAttribute("results", results)
+                        .withContentAttribute("credits", this.getCredits(session.getId()))
+                        .build()));
+    }
+
+    private void handleSubscribeMessage(WebSocketSession session, Map<String, String> headers, Map<String, Object> content) throws IOException {
+        String topic = headers.get("topic");
+        OverflowPolicy overflowPolicy = this.parseOverflowPolicy(headers.get("overflow"));
+        DeliveryMode deliveryMode = this.parseDeliveryMode(headers.get("delivery"));
+        Integer batchSize = this.parseNonNegative(headers.get("batchSize"));
+        Integer lingerMs = this.parseNonNegative(headers.get("lingerMs"));
+        ReplayFrom replayFrom = this.parseReplayFrom(headers);
+        String group = headers.get("group");
+
+        // replays read the history of a single topic for a single subscriber
+        if (topic == null || !Subscription.isValidTopic(topic) || overflowPolicy == null || deliveryMode == null
+                || (replayFrom != null && (Subscription.isTopicPattern(topic) || group != null))
+                || (headers.containsKey("batchSize") && batchSize == null) || (headers.containsKey("lingerMs") && lingerMs == null)
+                || (replayFrom == null && (headers.containsKey("sincePosition") || headers.containsKey("sinceTime") || headers.containsKey("sinceCount")))) {
+            this.handleInvalidMessage(session);
+            return;
+        }
+
+        Object object = (content != null) ? content.get("filter") : null;
+        Map<String, Object> filter;
+
+        try {
+            filter = (object instanceof Map) ? FilterExpression.asFilter((Map<?, ?>) object) : null;
+            FilterExpression.compile(filter);
+        } catch (IllegalArgumentException e) {
+            LOGGER.info("invalid filter from client: {}, {}", session.getId(), e.getMessage());
             this.handleInvalidMessage(session);
             return;
         }
 
-        this.messageBroker.publish(topic, content);
+        if (batchSize != null) {
+            this.sessionSender.configureBatching(session.getId(), batchSize, (lingerMs != null) ? lingerMs : 0);
+        }
+
+        String subscription = headers.get("subscription");
+
+        if (group != null) {
+            this.handleGroupSubscribeMessage(session, headers, topic, group, filter, deliveryMode, subscription);
+            return;
+        }
+
+        Map<String, String> envelopeHeaders = (subscription != null) ? Collections.singletonMap("subscription", subscription) : null;
+
+        Disposable disposable = this.messageBroker.subscribe(topic, filter, deliveryMode, replayFrom)
+                .subscribe(m -> this.sendMessage(session, m, deliveryMode, envelopeHeaders, overflowPolicy),
+                        error -> this.handleSubscriptionFailure(session, topic, subscription, error));
+        this.consumerSessionHandler.subscribeTopic(session.getId(), topic, disposable);
+
         Message message = Message.builder()
                 .withType(MessageType.RESPONSE)
                 .withHeaders(null)
@@ -107,28 +482,38 @@ public class WebSocketHandlerImpl extends TextWebSocketHandler {
         this.sendMessage(session, message);
     }
 
-    private void handleSubscribeMessage(WebSocketSession session, String topic, Object object) throws IOException {
-        if (topic == null) {
+    private void handleGroupSubscribeMessage(WebSocketSession session, Map<String, String> headers, String topic, String group,
+                                             Map<String, Object> filter, DeliveryMode deliveryMode, String subscription) throws IOException {
+        GroupBalancing balancing = this.parseGroupBalancing(headers.get("balance"));
+        Integer prefetch = headers.containsKey("prefetch") ? this.parseNonNegative(headers.get("prefetch")) : Integer.valueOf(this.defaultPrefetch);
+
+        if (group.isEmpty() || balancing == null || prefetch == null || prefetch == 0) {
             this.handleInvalidMessage(session);
             return;
         }
 
-        Map<String, Object> filter = (object != null) ? (Map<String, Object>) object : null;
+        GroupSubscription groupSubscription = GroupSubscription.builder()
+                .withTopic(topic)
+                .withGroup(group)
+                .withFilter(filter)
+                .withDeliveryMode(deliveryMode)
+                .withBalancing(balancing)
+                .withKey(headers.get("groupKey"))
+                .withPrefetch(prefetch)
+                .build();
 
-        Disposable disposable = this.messageBroker.subscribe(topic, filter)
-                .subscribe(m -> {
-                    try {
-                        Message message = Message.builder()
-                                .withType(MessageType.MESSAGE)
-                                .withHeaders(null)
-                                .withContent(m)
-                                .build();
-                        this.sendMessage(session, message);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                });
-        this.consumerSessionHandler.subscribeTopic(session.getId(), topic, disposable);
+        try {
+            // group deliveries are never dropped or conflated, a member that cannot keep up is disconnected instead
+            // and its unacknowledged messages go to the other members
+            this.consumerSessionHandler.joinGroup(session.getId(), groupSubscription,
+                    delivery -> this.sendMessage(session, delivery.getMessageWrapper(), deliveryMode,
+                            this.groupHeaders(subscription, group, delivery.getDeliveryTag(), delivery.isRedelivered()), OverflowPolicy.DISCONNECT),
+                    () -> this.messageBroker.subscribe(topic, filter, deliveryMode, null));
+        } catch (IllegalArgumentException e) {
+            LOGGER.info("client: {} cannot join group: {}, {}", session.getId(), group, e.getMessage());
+            this.handleInvalidMessage(session);
+            return;
+        }
 
         Message message = Message.builder()
                 .withType(MessageType.RESPONSE)
@@ -138,11 +523,52 @@ public class WebSocketHandlerImpl extends TextWebSocketHandler {
         this.sendMessage(session, message);
     }
 
+    // acknowledgements are only answered when they fail, a successful one frees a prefetch slot of the member
+    private void handleAckMessage(WebSocketSession session, Map<String, String> headers) throws IOException {
+        String topic = headers.get("topic");
+        String group = headers.get("group");
+        Long deliveryTag = this.parseLong(headers.get("deliveryTag"));
+
+        if (topic == null || group == null || deliveryTag == null) {
+            this.handleInvalidMessage(session);
+            return;
+        }
+
+        if (!this.consumerSessionHandler.acknowledge(session.getId(), topic, group, deliveryTag, "true".equals(headers.get("multiple")))) {
+            Message message = Message.builder()
+                    .withType(MessageType.RESPONSE)
+                    .withHeaders(null)
+                    .withContentAttribute("status", "unsuccessful")
+                    .withContentAttribute("message", "unknown delivery tag")
+                    .build();
+            this.sendMessage(session, message);
+        }
+    }
+
+    private Map<String, String> groupHeaders(String subscription, String group, long deliveryTag, boolean redelivered) {
+        Map<String, String> headers = new LinkedHashMap<>();
+
+        if (subscription != null) {
+            headers.put("subscription", subscription);
+        }
+
+        headers.put("group", group);
+        headers.put("deliveryTag", String.valueOf(deliveryTag));
+
+        if (redelivered) {
+            headers.put("redelivered", "true");
+        }
+
+        return headers;
+    }
+
     private void handleHearBeatMessage(WebSocketSession session) throws IOException {
+        this.sessionMonitor.recordHeartBeat(session.getId());
         Message message = Message.builder()
                 .withType(MessageType.HEART_BEAT)
                 .withHeaders(null)
-                .withContent(null)
+                .withContentAttribute("queueDepth", this.sessionSender.getQueueDepth(session.getId()))
+                .withContentAttribute("bufferedBytes", this.sessionSender.getBufferedBytes(session.getId()))
                 .build();
         this.sendMessage(session, message);
     }
@@ -158,18 +584,213 @@ public class WebSocketHandlerImpl extends TextWebSocketHandler {
     }
 
     private void handleInvalidMessage(WebSocketSession session) throws IOException {
+        this.handleInvalidMessage(session, null);
+    }
+
+    private void handleInvalidMessage(WebSocketSession session, Map<String, String> headers) throws IOException {
         Message message = Message.builder()
                 .withType(MessageType.RESPONSE)
-                .withHeaders(null)
+                .withHeaders(headers)
                 .withContentAttribute("status", "unsuccessful")
                 .withContentAttribute("message", "invalid message body")
                 .build();
         this.sendMessage(session, message);
     }
 
-    private void sendMessage(WebSocketSession session, Message message) throws IOException {
-        String messageString = this.objectMapper.writeValueAsString(message);
-        session.sendMessage(new TextMessage(messageString));
-        LOGGER.info("message: {} sent to client: {}", messageString, session.getId());
+    // a failed subscription has ended, the client has to subscribe again
+    private void handleSubscriptionFailure(WebSocketSession session, String topic, String subscription, Throwable error) {
+        LOGGER.warn("client: {} subscription to topic: {} failed, {}", session.getId(), topic, error.getMessage());
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("topic", topic);
+
+        if (subscription != null) {
+            headers.put("subscription", subscription);
+        }
+
+        Message message = Message.builder()
+                .withType(MessageType.RESPONSE)
+                .withHeaders(headers)
+                .withContentAttribute("status", "unsuccessful")
+                .withContentAttribute("message", "subscription failed: " + error.getMessage())
+                .build();
+        this.sendMessage(session, message);
+    }
+
+    private void handleThrottledMessage(WebSocketSession session, Map<String, String> headers, String reason, long retryAfterMs) {
+        Message message = Message.builder()
+                .withType(MessageType.RESPONSE)
+                .withHeaders(headers)
+                .withContentAttribute("status", "throttled")
+                .withContentAttribute("message", reason)
+                .withContentAttribute("retryAfterMs", retryAfterMs)
+                .withContentAttribute("credits", this.getCredits(session.getId()))
+                .build();
+        this.sendMessage(session, message);
+    }
+
+    private boolean acquireCredits(String sessionId, int count) {
+        AtomicInteger credits = this.publishCredits.get(sessionId);
+
+        if (credits == null) {
+            return false;
+        }
+
+        int available;
+        do {
+            available = credits.get();
+            if (available < count) {
+                return false;
+            }
+        } while (!credits.compareAndSet(available, available - count));
+
+        return true;
+    }
+
+    private void releaseCredits(String sessionId, int count) {
+        AtomicInteger credits = this.publishCredits.get(sessionId);
+
+        if (credits != null) {
+            credits.addAndGet(count);
+        }
+    }
+
+    private int getCredits(String sessionId) {
+        AtomicInteger credits = this.publishCredits.get(sessionId);
+        return (credits != null) ? credits.get() : 0;
+    }
+
+    private static boolean isPublishTopic(String topic) {
+        return topic != null && !topic.isEmpty() && !topic.contains(Subscription.WILDCARD);
+    }
+
+    private OverflowPolicy parseOverflowPolicy(String overflow) {
+        if (overflow == null) {
+            return this.defaultOverflowPolicy;
+        }
+
+        try {
+            return OverflowPolicy.valueOf(overflow.replace('-', '_').toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private AckMode parseAckMode(String ack) {
+        if (ack == null) {
+            return this.defaultAckMode;
+        }
+
+        try {
+            return AckMode.valueOf(ack.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private GroupBalancing parseGroupBalancing(String balance) {
+        if (balance == null) {
+            return GroupBalancing.LEAST_LOADED;
+        }
+
+        try {
+            return GroupBalancing.valueOf(balance.replace('-', '_').toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private DeliveryMode parseDeliveryMode(String delivery) {
+        if (delivery == null) {
+            return DeliveryMode.FULL;
+        }
+
+        try {
+            return DeliveryMode.valueOf(delivery.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Integer parseNonNegative(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            int parsed = Integer.parseInt(value);
+            return (parsed >= 0) ? parsed : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private ReplayFrom parseReplayFrom(Map<String, String> headers) {
+        String sincePosition = headers.get("sincePosition");
+        String sinceTime = headers.get("sinceTime");
+        String sinceCount = headers.get("sinceCount");
+
+        if ((sincePosition != null ? 1 : 0) + (sinceTime != null ? 1 : 0) + (sinceCount != null ? 1 : 0) != 1) {
+            return null;
+        }
+
+        if (sincePosition != null) {
+            return sincePosition.isEmpty() ? null : ReplayFrom.position(sincePosition);
+        }
+
+        if (sinceCount != null) {
+            Integer count = this.parseNonNegative(sinceCount);
+            return (count != null) ? ReplayFrom.count(count) : null;
+        }
+
+        try {
+            long timestamp = Long.parseLong(sinceTime);
+            return (timestamp >= 0) ? ReplayFrom.timestamp(timestamp) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Long parseLong(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // responses are also sent from write completions, which must not wait for a full session queue, and a client
+    // waits for its acknowledgements, so a session that cannot take them is disconnected rather than sent fewer
+    private void sendMessage(WebSocketSession session, Message message) {
+        this.sendMessage(session, message, OverflowPolicy.DISCONNECT, null);
+    }
+
+    private WireFormat wireFormat(WebSocketSession session) {
+        return WireFormat.fromSubProtocol(session.getAcceptedProtocol());
+    }
+
+    private void sendMessage(WebSocketSession session, Message message, OverflowPolicy overflowPolicy, String conflationKey) {
+        WebSocketMessage<?> webSocketMessage = this.messageCodec.encode(message, this.wireFormat(session));
+        this.sessionSender.send(session.getId(), webSocketMessage, null, overflowPolicy, conflationKey, false);
+        LOGGER.debug("{} response of {} bytes sent to client: {}", message.getType(), webSocketMessage.getPayloadLength(), session.getId());
+    }
+
+    private void sendMessage(WebSocketSession session, MessageWrapper messageWrapper, DeliveryMode deliveryMode,
+                             Map<String, String> headers, OverflowPolicy overflowPolicy) {
+        WireFormat wireFormat = this.wireFormat(session);
+        WebSocketMessage<?> webSocketMessage = this.messageCodec.encode(messageWrapper, deliveryMode, headers, wireFormat);
+        boolean delta = deliveryMode == DeliveryMode.DELTA && messageWrapper.isDelta();
+        // deltas cannot replace each other, only full documents are conflated
+        String conflationKey = delta ? null : messageWrapper.getTopic() + ":" + messageWrapper.getId();
+        // a frame without per-subscription headers is the same for every session, it is compressed once with it
+        Supplier<WebSocketMessage<?>> compressedMessage = (headers == null || headers.isEmpty())
+                ? () -> messageWrapper.getEncoding(wireFormat.getSubProtocol() + (delta ? ":delta-frame" : ":frame") + ":deflated",
+                        m -> this.frameCompressor.compress(webSocketMessage))
+                : null;
+        this.sessionSender.send(session.getId(), webSocketMessage, compressedMessage, overflowPolicy, conflationKey, true);
+        LOGGER.debug("message on topic: {} sent to client: {}", messageWrapper.getTopic(), session.getId());
     }
 }
@@ -0,0 +1,117 @@
+package com.alternate.common.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingQueueTest {
+
+    private final BlockingQueue<Map.Entry<String, List<Integer>>> flushed = new LinkedBlockingQueue<>();
+    private BatchingQueue<String, Integer> queue;
+
+    @After
+    public void shutdown() {
+        if (this.queue != null) {
+            this.queue.shutdown();
+        }
+    }
+
+    @Test
+    public void flushesFullBatchesWithoutLingering() throws InterruptedException {
+        this.queue = new BatchingQueue<>(3, 60000, this::flush);
+
+        for (int i = 0; i < 3; i++) {
+            this.queue.submit("a", i);
+        }
+
+        assertEquals(this.batch("a", 0, 1, 2), this.flushed.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void flushesPartialBatchesAfterLingering() throws InterruptedException {
+        this.queue = new BatchingQueue<>(100, 50, this::flush);
+        long submittedAt = System.nanoTime();
+
+        this.queue.submit("a", 1);
+        this.queue.submit("a", 2);
+
+        assertEquals(this.batch("a", 1, 2), this.flushed.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - submittedAt >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void groupsItemsByKeyInOrder() throws InterruptedException {
+        this.queue = new BatchingQueue<>(5, 60000, this::flush);
+
+        this.queue.submit("a", 1);
+        this.queue.submit("b", 2);
+        this.queue.submit("a", 3);
+        this.queue.submit("b", 4);
+        this.queue.submit("c", 5);
+
+        assertEquals(this.batch("a", 1, 3), this.flushed.poll(5, TimeUnit.SECONDS));
+        assertEquals(this.batch("b", 2, 4), this.flushed.poll(5, TimeUnit.SECONDS));
+        assertEquals(this.batch("c", 5), this.flushed.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, this.queue.size());
+    }
+
+    @Test
+    public void keepsFlushingAfterAFlusherFails() throws InterruptedException {
+        this.queue = new BatchingQueue<>(1, 0, (key, items) -> {
+            if (key.equals("poison")) {
+                throw new IllegalStateException("poison");
+            }
+            this.flush(key, items);
+        });
+
+        this.queue.submit("poison", 0);
+        this.queue.submit("a", 1);
+
+        assertEquals(this.batch("a", 1), this.flushed.poll(5, TimeUnit.SECONDS));
+        assertNull(this.flushed.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shutdownReturnsTheItemsNotFlushed() {
+        this.queue = new BatchingQueue<>(100, 60000, this::flush);
+
+        this.queue.submit("a", 1);
+        this.queue.submit("b", 2);
+
+        assertEquals(Arrays.asList(1, 2), this.queue.shutdown());
+        assertTrue(this.flushed.isEmpty());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectsItemsAfterShutdown() {
+        this.queue = new BatchingQueue<>(100, 0, this::flush);
+        this.queue.shutdown();
+        this.queue.submit("a", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANonPositiveBatchSize() {
+        this.queue = new BatchingQueue<>(0, 0, this::flush);
+    }
+
+    private void flush(String key, List<Integer> items) {
+        this.flushed.add(this.batch(key, items.toArray(new Integer[0])));
+    }
+
+    private Map.Entry<String, List<Integer>> batch(String key, Integer... items) {
+        return new AbstractMap.SimpleImmutableEntry<>(key, new ArrayList<>(Arrays.asList(items)));
+    }
+}
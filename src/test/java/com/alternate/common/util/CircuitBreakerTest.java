@@ -0,0 +1,99 @@
+package com.alternate.common.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000, this.now::get);
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(0, breaker.getRetryAfterMillis());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(60000, breaker.getRetryAfterMillis());
+    }
+
+    @Test
+    public void letsOneTrialThroughOnceOpenMillisPassed() {
+        CircuitBreaker breaker = this.opened(50);
+
+        this.advance(49);
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, breaker.getRetryAfterMillis());
+
+        this.advance(1);
+        assertEquals(0, breaker.getRetryAfterMillis());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void failedTrialReopensTheBreaker() {
+        CircuitBreaker breaker = this.opened(50);
+
+        this.advance(50);
+        assertTrue(breaker.tryAcquire());
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(50, breaker.getRetryAfterMillis());
+    }
+
+    @Test
+    public void trialWithoutOutcomeIsGivenUpAfterOpenMillis() {
+        CircuitBreaker breaker = this.opened(50);
+
+        this.advance(50);
+        assertTrue(breaker.tryAcquire());
+        this.advance(49);
+        assertFalse(breaker.tryAcquire());
+        this.advance(1);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANonPositiveThreshold() {
+        new CircuitBreaker(0, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANegativeOpenTime() {
+        new CircuitBreaker(1, -1);
+    }
+
+    private void advance(long millis) {
+        this.now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private CircuitBreaker opened(long openMillis) {
+        CircuitBreaker breaker = new CircuitBreaker(1, openMillis, this.now::get);
+        breaker.recordFailure();
+        return breaker;
+    }
+}
@@ -0,0 +1,36 @@
+package com.alternate.common.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExponentialBackoffTest {
+
+    @Test
+    public void delaysDoubleUpToTheMaximumWithJitter() {
+        for (int run = 0; run < 100; run++) {
+            ExponentialBackoff backoff = new ExponentialBackoff(100, 1000);
+            long[] ceilings = {100, 200, 400, 800, 1000, 1000};
+
+            for (long ceiling : ceilings) {
+                long delay = backoff.nextDelayMillis();
+                assertTrue(delay + " not in [" + ceiling / 2 + ", " + ceiling + "]", delay >= ceiling / 2 && delay <= ceiling);
+            }
+            assertEquals(ceilings.length, backoff.getAttempts());
+        }
+    }
+
+    @Test
+    public void resetStartsOver() {
+        ExponentialBackoff backoff = new ExponentialBackoff(100, 100000);
+
+        for (int i = 0; i < 40; i++) {
+            assertTrue(backoff.nextDelayMillis() <= 100000);
+        }
+
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertTrue(backoff.nextDelayMillis() <= 100);
+    }
+}
@@ -0,0 +1,91 @@
+package com.alternate.common.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+
+    // the timer only moves on when the test advances this clock
+    private final AtomicLong now = new AtomicLong();
+    private final HashedWheelTimer timer = new HashedWheelTimer(10, 8, this.now::get);
+
+    @After
+    public void shutdown() {
+        this.timer.shutdown();
+    }
+
+    @Test
+    public void runsTasksNoSoonerThanTheirDelay() throws InterruptedException {
+        this.assertRunsAfter(50);
+    }
+
+    @Test
+    public void runsTasksDueAfterMoreThanOneRevolution() throws InterruptedException {
+        // the wheel turns once every 80 ms
+        this.assertRunsAfter(250);
+    }
+
+    @Test
+    public void cancelledTasksDoNotRun() throws InterruptedException {
+        AtomicBoolean ran = new AtomicBoolean();
+        CountDownLatch later = new CountDownLatch(1);
+
+        HashedWheelTimer.Timeout timeout = this.timer.schedule(() -> ran.set(true), 30, TimeUnit.MILLISECONDS);
+        this.timer.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        this.advanceTo(110);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+        assertEquals(0, this.timer.size());
+    }
+
+    @Test
+    public void expiredTimeoutsCannotBeCancelled() throws InterruptedException {
+        CountDownLatch expired = new CountDownLatch(1);
+        HashedWheelTimer.Timeout timeout = this.timer.schedule(expired::countDown, 0, TimeUnit.MILLISECONDS);
+
+        this.advanceTo(10);
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANonPositiveTick() {
+        new HashedWheelTimer(0, 8);
+    }
+
+    // ticks are visited in order, so the task under test was passed over by the time one due two ticks earlier runs
+    private void assertRunsAfter(long delayMillis) throws InterruptedException {
+        AtomicBoolean ran = new AtomicBoolean();
+        CountDownLatch expired = new CountDownLatch(1);
+        CountDownLatch earlier = new CountDownLatch(1);
+
+        this.timer.schedule(() -> {
+            ran.set(true);
+            expired.countDown();
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        this.timer.schedule(earlier::countDown, delayMillis - 20, TimeUnit.MILLISECONDS);
+        assertEquals(2, this.timer.size());
+
+        this.advanceTo(delayMillis - 1);
+        assertTrue(earlier.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+
+        this.advanceTo(delayMillis + 10);
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+    }
+
+    private void advanceTo(long millis) {
+        this.now.set(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
@@ -0,0 +1,95 @@
+package com.alternate.common.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrefixTrieTest {
+
+    private final PrefixTrie<String> trie = new PrefixTrie<>();
+
+    @Test
+    public void findsTheValuesOfEveryPrefixOfAKey() {
+        this.trie.compute("", (prefix, value) -> "root");
+        this.trie.compute("orders", (prefix, value) -> "orders");
+        this.trie.compute("orders.eu", (prefix, value) -> "orders.eu");
+        this.trie.compute("orders.us", (prefix, value) -> "orders.us");
+
+        List<String> found = new ArrayList<>();
+        this.trie.forEachPrefixOf("orders.eu.de", found::add);
+
+        assertEquals(Arrays.asList("root", "orders", "orders.eu"), found);
+        assertEquals("orders.us", this.trie.get("orders.us"));
+        assertNull(this.trie.get("orders."));
+        assertNull(this.trie.get("payments"));
+    }
+
+    @Test
+    public void hasPrefixOfOnlyCountsStoredValues() {
+        this.trie.compute("orders.eu", (prefix, value) -> prefix);
+
+        assertTrue(this.trie.hasPrefixOf("orders.eu"));
+        assertTrue(this.trie.hasPrefixOf("orders.eu.de"));
+        assertFalse(this.trie.hasPrefixOf("orders"));
+        assertFalse(this.trie.hasPrefixOf("orders.us"));
+    }
+
+    @Test
+    public void computeRemapsTheCurrentValue() {
+        this.trie.compute("a", (prefix, value) -> "1");
+        assertEquals("1+2", this.trie.compute("a", (prefix, value) -> value + "+2"));
+        assertEquals("1+2", this.trie.get("a"));
+    }
+
+    @Test
+    public void removingTheLastValuePrunesTheTrie() {
+        this.trie.compute("orders.eu", (prefix, value) -> prefix);
+        this.trie.compute("orders.eu", (prefix, value) -> null);
+
+        assertTrue(this.trie.isEmpty());
+
+        this.trie.compute("", (prefix, value) -> "root");
+        this.trie.compute("", (prefix, value) -> null);
+
+        assertTrue(this.trie.isEmpty());
+    }
+
+    @Test
+    public void pruningKeepsSharedBranchesAndValues() {
+        this.trie.compute("orders", (prefix, value) -> prefix);
+        this.trie.compute("orders.eu", (prefix, value) -> prefix);
+        this.trie.compute("orders.us", (prefix, value) -> prefix);
+
+        this.trie.compute("orders.eu", (prefix, value) -> null);
+        assertEquals(this.entries("orders", "orders.us"), this.entries());
+
+        this.trie.compute("orders", (prefix, value) -> null);
+        assertEquals(this.entries("orders.us"), this.entries());
+
+        // looking up a missing prefix creates no nodes
+        this.trie.compute("payments", (prefix, value) -> null);
+        this.trie.compute("orders.us", (prefix, value) -> null);
+        assertTrue(this.trie.isEmpty());
+    }
+
+    private Map<String, String> entries(String... prefixes) {
+        Map<String, String> entries = new TreeMap<>();
+        Arrays.stream(prefixes).forEach(prefix -> entries.put(prefix, prefix));
+        return entries;
+    }
+
+    private Map<String, String> entries() {
+        Map<String, String> entries = new TreeMap<>();
+        this.trie.forEach(entries::put);
+        return entries;
+    }
+}
@@ -0,0 +1,156 @@
+package com.alternate.common.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryExecutorTest {
+
+    private final IOException unavailable = new IOException("unavailable");
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(100, 1000);
+    private final RetryExecutor executor = new RetryExecutor(2, 3, 5, 20, this.circuitBreaker, e -> e instanceof IOException);
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void retriesUntilTheOperationSucceeds() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<String> result = this.executor.executeAsync(() ->
+                (attempts.incrementAndGet() < 3) ? this.failed(this.unavailable) : CompletableFuture.completedFuture("done"));
+
+        assertEquals("done", result.get(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+        assertEquals(CircuitBreaker.State.CLOSED, this.circuitBreaker.getState());
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<String> result = this.executor.executeAsync(() -> {
+            attempts.incrementAndGet();
+            return this.failed(this.unavailable);
+        });
+
+        assertSame(this.unavailable, this.causeOf(result));
+        assertEquals(4, attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryErrorsThatAreNotRetryable() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        IllegalStateException invalid = new IllegalStateException("invalid");
+
+        CompletableFuture<String> result = this.executor.executeAsync(() -> {
+            attempts.incrementAndGet();
+            throw invalid;
+        });
+
+        assertSame(invalid, this.causeOf(result));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void retriesSubmittedCallables() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        Future<Integer> result = this.executor.submit(() -> {
+            if (attempts.incrementAndGet() < 2) {
+                throw this.unavailable;
+            }
+            return attempts.get();
+        });
+
+        assertEquals(Integer.valueOf(2), result.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void openBreakerHoldsAttemptsBack() throws Exception {
+        AtomicLong now = new AtomicLong();
+        CountDownLatch refused = new CountDownLatch(1);
+        CircuitBreaker breaker = new CircuitBreaker(1, 50, now::get) {
+            @Override
+            public synchronized boolean tryAcquire() {
+                boolean acquired = super.tryAcquire();
+                if (!acquired) {
+                    refused.countDown();
+                }
+                return acquired;
+            }
+        };
+        RetryExecutor executor = new RetryExecutor(1, 5, 1, 5, breaker, e -> e instanceof IOException);
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            CompletableFuture<String> result = executor.executeAsync(() ->
+                    (attempts.incrementAndGet() < 2) ? this.failed(this.unavailable) : CompletableFuture.completedFuture("done"));
+
+            // the breaker's clock stands still, so the retry is refused until the test moves it on
+            assertTrue(refused.await(5, TimeUnit.SECONDS));
+            assertEquals(1, attempts.get());
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            now.set(TimeUnit.MILLISECONDS.toNanos(50));
+            assertEquals("done", result.get(5, TimeUnit.SECONDS));
+            assertEquals(2, attempts.get());
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shutdownFailsTasksWaitingForARetry() throws Exception {
+        RetryExecutor executor = new RetryExecutor(1, 3, 60000, 60000, this.circuitBreaker, e -> e instanceof IOException);
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<String> result = executor.executeAsync(() -> {
+            attempts.incrementAndGet();
+            return this.failed(this.unavailable);
+        });
+
+        // the pool has one worker, the attempt has failed and its retry is waiting once a later task ran
+        assertEquals("next", executor.submit(() -> "next").get(5, TimeUnit.SECONDS));
+        assertFalse(result.isDone());
+
+        executor.shutdown();
+        assertTrue(this.causeOf(result) instanceof RejectedExecutionException);
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, attempts.get());
+    }
+
+    private <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    private Throwable causeOf(Future<?> result) throws Exception {
+        try {
+            result.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("completed normally");
+        return null;
+    }
+}
@@ -0,0 +1,181 @@
+package com.alternate.messagebroker.models;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FilterExpressionTest {
+
+    private final Document order = Document.parse("{"
+            + "'status': 'pending', 'total': 120, 'discount': 2.5, 'note': null,"
+            + "'tags': ['priority', 'export'],"
+            + "'address': {'city': 'Colombo', 'zip': '00100'},"
+            + "'items': [{'sku': 'a-1', 'quantity': 2}, {'sku': 'b-2', 'quantity': 5}]"
+            + "}");
+
+    @Test
+    public void emptyFilterMatchesEverything() {
+        assertSame(FilterExpression.MATCH_ALL, FilterExpression.compile(null));
+        assertSame(FilterExpression.MATCH_ALL, FilterExpression.compile(new Document()));
+        assertTrue(FilterExpression.compile(null).matches(new Document()));
+    }
+
+    @Test
+    public void equalityMatchesScalarsAndNumbersOfAnyType() {
+        assertTrue(this.matches("{'status': 'pending'}"));
+        assertFalse(this.matches("{'status': 'shipped'}"));
+        assertTrue(this.matches("{'total': 120.0}"));
+        assertTrue(this.matches("{'total': {'$eq': 120}}"));
+        assertTrue(FilterExpression.compile(new Document("total", 120L)).matches(this.order));
+        assertFalse(this.matches("{'total': '120'}"));
+    }
+
+    @Test
+    public void equalityOnArrayMatchesTheArrayOrAnyElement() {
+        assertTrue(this.matches("{'tags': 'export'}"));
+        assertTrue(this.matches("{'tags': ['priority', 'export']}"));
+        assertFalse(this.matches("{'tags': ['export', 'priority']}"));
+        assertFalse(this.matches("{'tags': 'domestic'}"));
+    }
+
+    @Test
+    public void dottedPathsReachIntoDocumentsAndArrays() {
+        assertTrue(this.matches("{'address.city': 'Colombo'}"));
+        assertFalse(this.matches("{'address.city': 'Kandy'}"));
+        assertTrue(this.matches("{'items.0.sku': 'a-1'}"));
+        assertFalse(this.matches("{'items.1.sku': 'a-1'}"));
+        assertTrue(this.matches("{'items.sku': 'b-2'}"));
+        assertTrue(this.matches("{'items.quantity': {'$gt': 4}}"));
+        assertFalse(this.matches("{'items.quantity': {'$gt': 5}}"));
+        assertTrue(this.matches("{'address': {'city': 'Colombo', 'zip': '00100'}}"));
+    }
+
+    @Test
+    public void nullMatchesNullAndMissingFields() {
+        assertTrue(this.matches("{'note': null}"));
+        assertTrue(this.matches("{'missing': null}"));
+        assertTrue(this.matches("{'address.missing': null}"));
+        assertFalse(this.matches("{'status': null}"));
+        assertTrue(this.matches("{'missing': {'$in': [null, 'x']}}"));
+    }
+
+    @Test
+    public void existsTellsPresentFromMissingFields() {
+        assertTrue(this.matches("{'note': {'$exists': true}}"));
+        assertTrue(this.matches("{'missing': {'$exists': false}}"));
+        assertFalse(this.matches("{'status': {'$exists': false}}"));
+        assertTrue(this.matches("{'items.sku': {'$exists': true}}"));
+    }
+
+    @Test
+    public void negationsMatchWhatTheirOperatorDoesNot() {
+        assertTrue(this.matches("{'status': {'$ne': 'shipped'}}"));
+        assertFalse(this.matches("{'tags': {'$ne': 'export'}}"));
+        assertTrue(this.matches("{'status': {'$in': ['shipped', 'pending']}}"));
+        assertTrue(this.matches("{'total': {'$in': [100, 120.0]}}"));
+        assertFalse(this.matches("{'status': {'$nin': ['shipped', 'pending']}}"));
+        assertTrue(this.matches("{'missing': {'$nin': ['x']}}"));
+    }
+
+    @Test
+    public void comparisonsOnlyCompareValuesOfTheSameType() {
+        assertTrue(this.matches("{'total': {'$gte': 120, '$lt': 200}}"));
+        assertFalse(this.matches("{'total': {'$gt': 120}}"));
+        assertTrue(this.matches("{'discount': {'$lte': 2.5}}"));
+        assertTrue(this.matches("{'status': {'$gt': 'open'}}"));
+        assertFalse(this.matches("{'status': {'$gt': 1}}"));
+        assertFalse(this.matches("{'missing': {'$lt': 1}}"));
+
+        Document dated = new Document("createdAt", new Date(2000));
+        assertTrue(FilterExpression.compile(new Document("createdAt", new Document("$gt", new Date(1000)))).matches(dated));
+        assertFalse(FilterExpression.compile(new Document("createdAt", new Document("$gt", new Date(3000)))).matches(dated));
+    }
+
+    @Test
+    public void combinatorsCombineTheirFilters() {
+        assertTrue(this.matches("{'$and': [{'status': 'pending'}, {'total': {'$gt': 100}}]}"));
+        assertFalse(this.matches("{'$and': [{'status': 'pending'}, {'total': {'$gt': 200}}]}"));
+        assertTrue(this.matches("{'$or': [{'status': 'shipped'}, {'tags': 'priority'}]}"));
+        assertFalse(this.matches("{'$or': [{'status': 'shipped'}, {'tags': 'domestic'}]}"));
+        assertTrue(this.matches("{'$nor': [{'status': 'shipped'}, {'tags': 'domestic'}]}"));
+        assertTrue(this.matches("{'status': 'pending', '$or': [{'total': 1}, {'address.city': 'Colombo'}]}"));
+    }
+
+    @Test
+    public void topLevelStringAndBooleanEqualitiesAreIndexable() {
+        FilterExpression.Equality equality = this.compile("{'total': {'$gt': 1}, 'status': 'pending'}").getIndexableEquality();
+        assertEquals("status", equality.getField());
+        assertEquals("pending", equality.getValue());
+        assertEquals("paid", this.compile("{'paid': true}").getIndexableEquality().getField());
+        assertNull(this.compile("{'address.city': 'Colombo'}").getIndexableEquality());
+        assertNull(this.compile("{'total': 120}").getIndexableEquality());
+        assertNull(this.compile("{'$or': [{'status': 'pending'}, {'status': 'shipped'}]}").getIndexableEquality());
+    }
+
+    @Test
+    public void matchesRawDocumentsThroughLazyDocuments() {
+        ObjectId id = new ObjectId();
+        Document fullDocument = new Document(this.order).append("_id", id);
+        LazyDocument document = new LazyDocument(new RawBsonDocument(fullDocument, new DocumentCodec()), id.toHexString());
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(this.compile("{'address.city': 'Colombo', 'items.sku': 'b-2'}").matches(document));
+            assertTrue(this.compile("{'note': null, 'missing': {'$exists': false}}").matches(document));
+            assertTrue(this.compile("{'_id': '" + id.toHexString() + "'}").matches(document));
+            assertFalse(this.compile("{'note': {'$exists': false}}").matches(document));
+        }
+    }
+
+    @Test
+    public void invalidFiltersAreRejected() {
+        this.assertRejected("{'$where': 'true'}");
+        this.assertRejected("{'total': {'$regex': '1'}}");
+        this.assertRejected("{'total': {'$gt': 1, 'x': 1}}");
+        this.assertRejected("{'status': {'$in': 'pending'}}");
+        this.assertRejected("{'note': {'$exists': 1}}");
+        this.assertRejected("{'total': {'$gt': true}}");
+        this.assertRejected("{'$or': []}");
+        this.assertRejected("{'$and': ['status']}");
+        this.assertRejected("{'address..city': 'Colombo'}");
+        this.assertRejected("{'': 1}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void operandsMustBeFilters() {
+        FilterExpression.compile(Collections.singletonMap("$or", Arrays.asList(Collections.singletonMap("a", 1), "b")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void filterKeysMustBeStrings() {
+        FilterExpression.compile(Collections.singletonMap("$or", Collections.singletonList(Collections.singletonMap(1, "a"))));
+    }
+
+    private boolean matches(String filter) {
+        return this.compile(filter).matches(this.order);
+    }
+
+    private FilterExpression compile(String filter) {
+        return FilterExpression.compile(Document.parse(filter.replace('\'', '"')));
+    }
+
+    private void assertRejected(String filter) {
+        try {
+            this.compile(filter);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new AssertionError("accepted: " + filter);
+    }
+}
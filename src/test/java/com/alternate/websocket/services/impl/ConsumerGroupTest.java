@@ -0,0 +1,220 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.messagebroker.models.DeliveryMode;
+import com.alternate.messagebroker.models.MessageWrapper;
+import com.alternate.websocket.models.GroupBalancing;
+import com.alternate.websocket.models.GroupDelivery;
+import com.alternate.websocket.models.GroupSubscription;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConsumerGroupTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Counter droppedCounter = this.meterRegistry.counter("dropped");
+    private final Counter redeliveredCounter = this.meterRegistry.counter("redelivered");
+
+    @Test
+    public void prefetchBoundsUnacknowledgedDeliveries() {
+        ConsumerGroup group = this.group(GroupBalancing.LEAST_LOADED, 10);
+        List<GroupDelivery> deliveries = new ArrayList<>();
+
+        group.join("a", 2, deliveries::add);
+        this.dispatch(group, "m1", "m2", "m3", "m4");
+
+        assertEquals(Arrays.asList("m1", "m2"), this.ids(deliveries));
+        assertEquals(2, group.getBacklogSize());
+
+        assertTrue(group.acknowledge("a", deliveries.get(0).getDeliveryTag(), false));
+        assertEquals(Arrays.asList("m1", "m2", "m3"), this.ids(deliveries));
+
+        assertTrue(group.acknowledge("a", deliveries.get(2).getDeliveryTag(), true));
+        assertEquals(Arrays.asList("m1", "m2", "m3", "m4"), this.ids(deliveries));
+        assertEquals(0, group.getBacklogSize());
+    }
+
+    @Test
+    public void acknowledgingUnknownTagsOrMembersIsRefused() {
+        ConsumerGroup group = this.group(GroupBalancing.LEAST_LOADED, 10);
+        List<GroupDelivery> deliveries = new ArrayList<>();
+
+        group.join("a", 2, deliveries::add);
+        this.dispatch(group, "m1");
+
+        assertFalse(group.acknowledge("a", 99, false));
+        assertFalse(group.acknowledge("b", deliveries.get(0).getDeliveryTag(), false));
+        assertTrue(group.acknowledge("a", deliveries.get(0).getDeliveryTag(), false));
+        assertFalse(group.acknowledge("a", deliveries.get(0).getDeliveryTag(), false));
+    }
+
+    @Test
+    public void leastLoadedSpreadsMessagesOverMembers() {
+        ConsumerGroup group = this.group(GroupBalancing.LEAST_LOADED, 10);
+        List<GroupDelivery> a = new ArrayList<>();
+        List<GroupDelivery> b = new ArrayList<>();
+
+        group.join("a", 10, a::add);
+        group.join("b", 10, b::add);
+        this.dispatch(group, "m1", "m2", "m3", "m4");
+
+        assertEquals(2, a.size());
+        assertEquals(2, b.size());
+    }
+
+    @Test
+    public void hashKeepsMessagesWithTheSameKeyOnOneMemberInOrder() {
+        ConsumerGroup group = this.group(GroupBalancing.HASH, 100);
+        Map<String, List<GroupDelivery>> deliveries = new HashMap<>();
+
+        for (String member : Arrays.asList("a", "b", "c")) {
+            deliveries.put(member, new ArrayList<>());
+            group.join(member, 100, deliveries.get(member)::add);
+        }
+
+        for (int i = 0; i < 60; i++) {
+            group.dispatch(this.message("m" + i, "customer-" + (i % 6)));
+        }
+
+        Map<Object, String> owners = new HashMap<>();
+        deliveries.forEach((member, received) -> {
+            List<Integer> sequence = new ArrayList<>();
+
+            for (GroupDelivery delivery : received) {
+                Object customer = delivery.getMessageWrapper().getPayload().get("customer");
+                String owner = owners.putIfAbsent(customer, member);
+                if (owner != null && !owner.equals(member)) {
+                    fail(customer + " delivered to " + owner + " and " + member);
+                }
+                sequence.add(Integer.parseInt(delivery.getMessageWrapper().getId().substring(1)));
+            }
+
+            List<Integer> sorted = new ArrayList<>(sequence);
+            Collections.sort(sorted);
+            assertEquals(sorted, sequence);
+        });
+        assertEquals(6, owners.size());
+    }
+
+    @Test
+    public void unacknowledgedMessagesOfALeavingMemberAreRedelivered() {
+        ConsumerGroup group = this.group(GroupBalancing.LEAST_LOADED, 10);
+        List<GroupDelivery> a = new ArrayList<>();
+        List<GroupDelivery> b = new ArrayList<>();
+
+        group.join("a", 2, a::add);
+        this.dispatch(group, "m1", "m2");
+        group.acknowledge("a", a.get(0).getDeliveryTag(), false);
+        group.join("b", 5, b::add);
+
+        assertFalse(group.leave("a"));
+
+        assertEquals(Collections.singletonList("m2"), this.ids(b));
+        assertTrue(b.get(0).isRedelivered());
+        assertTrue(b.get(0).getDeliveryTag() > a.get(1).getDeliveryTag());
+        assertEquals(1.0, this.redeliveredCounter.count(), 0.0);
+
+        this.dispatch(group, "m3");
+        assertFalse(b.get(1).isRedelivered());
+    }
+
+    @Test
+    public void lastMemberLeavingClosesTheGroup() {
+        ConsumerGroup group = this.group(GroupBalancing.LEAST_LOADED, 10);
+        List<GroupDelivery> deliveries = new ArrayList<>();
+
+        group.join("a", 1, deliveries::add);
+        group.connect(() -> Flux.just(this.message("m1", null), this.message("m2", null)));
+
+        assertEquals(Collections.singletonList("m1"), this.ids(deliveries));
+        assertEquals(1, group.getBacklogSize());
+
+        assertFalse(group.leave("b"));
+        assertTrue(group.leave("a"));
+        assertEquals(0, group.getBacklogSize());
+
+        group.connect(() -> {
+            throw new AssertionError("closed group subscribed");
+        });
+    }
+
+    @Test
+    public void fullBacklogDropsTheOldestMessage() {
+        ConsumerGroup group = this.group(GroupBalancing.LEAST_LOADED, 2);
+        List<GroupDelivery> deliveries = new ArrayList<>();
+
+        this.dispatch(group, "m1", "m2", "m3");
+        assertEquals(2, group.getBacklogSize());
+        assertEquals(1.0, this.droppedCounter.count(), 0.0);
+
+        group.join("a", 10, deliveries::add);
+        assertTrue(deliveries.isEmpty());
+
+        group.deliverBacklog();
+        assertEquals(Arrays.asList("m2", "m3"), this.ids(deliveries));
+    }
+
+    @Test
+    public void failingMemberDoesNotLoseLaterDeliveries() {
+        ConsumerGroup group = this.group(GroupBalancing.LEAST_LOADED, 10);
+        List<GroupDelivery> deliveries = new ArrayList<>();
+
+        group.join("a", 10, delivery -> {
+            deliveries.add(delivery);
+            if (deliveries.size() == 1) {
+                throw new IllegalStateException("session closed");
+            }
+        });
+        this.dispatch(group, "m1", "m2");
+
+        assertEquals(Arrays.asList("m1", "m2"), this.ids(deliveries));
+    }
+
+    private ConsumerGroup group(GroupBalancing balancing, int backlogCapacity) {
+        GroupSubscription groupSubscription = GroupSubscription.builder()
+                .withTopic("orders")
+                .withGroup("billing")
+                .withDeliveryMode(DeliveryMode.FULL)
+                .withBalancing(balancing)
+                .withKey("customer")
+                .withPrefetch(10)
+                .build();
+
+        return new ConsumerGroup(groupSubscription, backlogCapacity, this.droppedCounter, this.redeliveredCounter);
+    }
+
+    private void dispatch(ConsumerGroup group, String... ids) {
+        for (String id : ids) {
+            group.dispatch(this.message(id, null));
+        }
+    }
+
+    private MessageWrapper message(String id, String customer) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("customer", customer);
+
+        return MessageWrapper.builder()
+                .withTopic("orders")
+                .withId(id)
+                .withPayload(payload)
+                .build();
+    }
+
+    private List<String> ids(List<GroupDelivery> deliveries) {
+        return deliveries.stream().map(delivery -> delivery.getMessageWrapper().getId()).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,165 @@
+package com.alternate.websocket.services.impl;
+
+import com.alternate.websocket.models.OverflowPolicy;
+import org.junit.Test;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundQueueTest {
+
+    private final OutboundQueue queue = new OutboundQueue(2);
+
+    @Test
+    public void queuesUntilFullAndTracksBytes() throws InterruptedException {
+        assertEquals(OutboundQueue.OfferResult.QUEUED, this.offer("one", OverflowPolicy.DROP_NEWEST, null));
+        assertEquals(OutboundQueue.OfferResult.QUEUED, this.offer("three", OverflowPolicy.DROP_NEWEST, null));
+
+        assertEquals(2, this.queue.size());
+        assertEquals(8, this.queue.bytes());
+
+        assertEquals("one", this.poll());
+        assertEquals(1, this.queue.size());
+        assertEquals(5, this.queue.bytes());
+        assertEquals("three", this.poll());
+        assertNull(this.queue.poll());
+        assertEquals(0, this.queue.bytes());
+    }
+
+    @Test
+    public void fullQueueAppliesTheOfferedPolicy() throws InterruptedException {
+        this.offer("m1", OverflowPolicy.DROP_OLDEST, null);
+        this.offer("m2", OverflowPolicy.DROP_OLDEST, null);
+
+        assertEquals(OutboundQueue.OfferResult.DROPPED, this.offer("m3", OverflowPolicy.DROP_NEWEST, null));
+        assertEquals(OutboundQueue.OfferResult.OVERFLOWED, this.offer("m3", OverflowPolicy.DISCONNECT, null));
+        assertEquals(OutboundQueue.OfferResult.QUEUED, this.offer("m3", OverflowPolicy.DROP_OLDEST, null));
+
+        assertEquals(2, this.queue.size());
+        assertEquals("m2", this.poll());
+        assertEquals("m3", this.poll());
+    }
+
+    @Test
+    public void framesThatMustNotBeDroppedAreNeverEvicted() throws InterruptedException {
+        this.offer("ack-1", OverflowPolicy.DISCONNECT, null);
+        this.offer("m1", OverflowPolicy.DROP_OLDEST, null);
+
+        assertEquals(OutboundQueue.OfferResult.QUEUED, this.offer("m2", OverflowPolicy.DROP_OLDEST, null));
+        assertEquals(OutboundQueue.OfferResult.OVERFLOWED, this.offer("ack-2", OverflowPolicy.DISCONNECT, null));
+
+        assertEquals("ack-1", this.poll());
+        assertEquals("m2", this.poll());
+        this.offer("ack-3", OverflowPolicy.DISCONNECT, null);
+        this.offer("ack-4", OverflowPolicy.DISCONNECT, null);
+        assertEquals(OutboundQueue.OfferResult.DROPPED, this.offer("m3", OverflowPolicy.DROP_OLDEST, null));
+        assertEquals("ack-3", this.poll());
+        assertEquals("ack-4", this.poll());
+    }
+
+    @Test
+    public void conflatedFramesReplaceTheQueuedFrameInPlace() throws InterruptedException {
+        this.offer("price-a-1", OverflowPolicy.CONFLATE, "a");
+        this.offer("price-b-1", OverflowPolicy.CONFLATE, "b");
+
+        assertEquals(OutboundQueue.OfferResult.QUEUED, this.offer("price-a-22", OverflowPolicy.CONFLATE, "a"));
+        assertEquals(2, this.queue.size());
+        assertEquals(19, this.queue.bytes());
+
+        assertEquals("price-a-22", this.poll());
+
+        // a polled frame is no longer conflated with
+        this.offer("price-a-3", OverflowPolicy.CONFLATE, "a");
+        assertEquals("price-b-1", this.poll());
+        assertEquals("price-a-3", this.poll());
+    }
+
+    @Test
+    public void conflationKeyIsForgottenWhenItsFrameIsEvicted() throws InterruptedException {
+        this.offer("a-1", OverflowPolicy.CONFLATE, "a");
+        this.offer("m1", OverflowPolicy.DROP_OLDEST, null);
+        this.offer("m2", OverflowPolicy.DROP_OLDEST, null);
+        this.offer("a-2", OverflowPolicy.CONFLATE, "a");
+
+        assertEquals("m2", this.poll());
+        assertEquals("a-2", this.poll());
+        assertNull(this.queue.poll());
+    }
+
+    @Test
+    public void blockedOfferWaitsForRoom() throws Exception {
+        this.offer("m1", OverflowPolicy.BLOCK, null);
+        this.offer("m2", OverflowPolicy.BLOCK, null);
+
+        CompletableFuture<OutboundQueue.OfferResult> blocked = this.offerAsync("m3");
+
+        try {
+            blocked.get(100, TimeUnit.MILLISECONDS);
+            throw new AssertionError("offer did not block");
+        } catch (TimeoutException e) {
+            assertEquals("m1", this.poll());
+        }
+
+        assertEquals(OutboundQueue.OfferResult.QUEUED, blocked.get(5, TimeUnit.SECONDS));
+        assertEquals("m2", this.poll());
+        assertEquals("m3", this.poll());
+    }
+
+    @Test
+    public void closeReleasesBlockedOffersAndRefusesNewOnes() throws Exception {
+        this.offer("m1", OverflowPolicy.BLOCK, null);
+        this.offer("m2", OverflowPolicy.BLOCK, null);
+
+        CompletableFuture<OutboundQueue.OfferResult> blocked = this.offerAsync("m3");
+
+        try {
+            blocked.get(100, TimeUnit.MILLISECONDS);
+            throw new AssertionError("offer did not block");
+        } catch (TimeoutException e) {
+            this.queue.close();
+        }
+
+        assertEquals(OutboundQueue.OfferResult.CLOSED, blocked.get(5, TimeUnit.SECONDS));
+        assertEquals(OutboundQueue.OfferResult.CLOSED, this.offer("m4", OverflowPolicy.DROP_OLDEST, null));
+        assertEquals(0, this.queue.size());
+        assertEquals(0, this.queue.bytes());
+    }
+
+    @Test
+    public void entriesKeepTheirBatchingFlag() throws InterruptedException {
+        this.queue.offer(new TextMessage("m1"), null, OverflowPolicy.DROP_OLDEST, null, true);
+        this.queue.offer(new TextMessage("m2"), null, OverflowPolicy.DROP_OLDEST, null, false);
+
+        assertTrue(this.queue.poll().isBatchable());
+        assertFalse(this.queue.poll().isBatchable());
+    }
+
+    private OutboundQueue.OfferResult offer(String payload, OverflowPolicy overflowPolicy, String conflationKey) throws InterruptedException {
+        return this.queue.offer(new TextMessage(payload), null, overflowPolicy, conflationKey, false);
+    }
+
+    private CompletableFuture<OutboundQueue.OfferResult> offerAsync(String payload) {
+        CompletableFuture<OutboundQueue.OfferResult> result = new CompletableFuture<>();
+
+        new Thread(() -> {
+            try {
+                result.complete(this.offer(payload, OverflowPolicy.BLOCK, null));
+            } catch (InterruptedException e) {
+                result.completeExceptionally(e);
+            }
+        }).start();
+
+        return result;
+    }
+
+    private String poll() {
+        return ((TextMessage) this.queue.poll().getMessage()).getPayload();
+    }
+}